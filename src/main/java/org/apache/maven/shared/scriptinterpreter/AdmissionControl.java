@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Limits the concurrent script evaluations of a runner. Each interpreter can have a capacity which the weights of its
+ * running scripts must not exceed, and new evaluations can be held back while the heap usage is above a threshold.
+ * Waiting threads block on a {@link Condition}, so virtual threads do not pin their carriers.
+ */
+final class AdmissionControl {
+
+    /**
+     * The weight hint in the leading comments of a script, like <code>// @weight 4</code>.
+     */
+    private static final Pattern WEIGHT_HINT = Pattern.compile("@weight\\s+(\\d+)");
+
+    /**
+     * How long to wait before checking the heap usage again, as freed memory is not signaled.
+     */
+    private static final long HEAP_POLL_MILLIS = 50;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /**
+     * The capacities indexed by interpreter id, guarded by {@link #lock}.
+     */
+    private final Map<String, Integer> capacities = new HashMap<>();
+
+    /**
+     * The weights of the running evaluations indexed by interpreter id, guarded by {@link #lock}.
+     */
+    private final Map<String, Integer> used = new HashMap<>();
+
+    /**
+     * The number of running evaluations, guarded by {@link #lock}.
+     */
+    private int running;
+
+    private volatile double heapThreshold;
+
+    void setCapacity(String interpreterId, int capacity) {
+        lock.lock();
+        try {
+            if (capacity > 0) {
+                capacities.put(interpreterId, capacity);
+            } else {
+                capacities.remove(interpreterId);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setHeapThreshold(double heapThreshold) {
+        this.heapThreshold = heapThreshold;
+    }
+
+    /**
+     * Waits until an evaluation of the specified weight is admitted. An evaluation heavier than the capacity of its
+     * interpreter is admitted once no other evaluation of the interpreter runs, and the heap threshold never holds
+     * back an evaluation if no other evaluation runs, so every script eventually runs.
+     *
+     * @param interpreterId The id of the interpreter evaluating the script, must not be <code>null</code>.
+     * @param weight The weight of the script, at least <code>1</code>.
+     * @return The admission to release once the evaluation completed, never <code>null</code>.
+     * @throws InterruptedIOException If the thread was interrupted while waiting.
+     */
+    Admission admit(String interpreterId, int weight) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (!canAdmit(interpreterId, weight)) {
+                if (running > 0 && isHeapExhausted()) {
+                    released.await(HEAP_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    released.await();
+                }
+            }
+            used.merge(interpreterId, weight, Integer::sum);
+            running++;
+            return new Admission(interpreterId, weight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for admission of a script");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAdmit(String interpreterId, int weight) {
+        Integer capacity = capacities.get(interpreterId);
+        int inUse = used.getOrDefault(interpreterId, 0);
+        if (capacity != null && inUse > 0 && inUse + weight > capacity) {
+            return false;
+        }
+        return running == 0 || !isHeapExhausted();
+    }
+
+    private boolean isHeapExhausted() {
+        double threshold = heapThreshold;
+        if (threshold <= 0) {
+            return false;
+        }
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        return heap.getUsed() > threshold * max;
+    }
+
+    /**
+     * Gets the weight hint of a script, given as <code>@weight</code> followed by a number in its leading comments.
+     *
+     * @param script The script contents, must not be <code>null</code>.
+     * @return The weight, at least <code>1</code>.
+     */
+    static int getWeight(String script) {
+        int weight = 1;
+        for (String line : script.split("\\R", 64)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!(trimmed.startsWith("//") || trimmed.startsWith("/*") || trimmed.startsWith("*"))) {
+                break;
+            }
+            Matcher matcher = WEIGHT_HINT.matcher(trimmed);
+            if (matcher.find()) {
+                try {
+                    weight = Math.max(1, Integer.parseInt(matcher.group(1)));
+                } catch (NumberFormatException e) {
+                    // out of range, keep the default
+                }
+                break;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * An admitted evaluation.
+     */
+    final class Admission implements AutoCloseable {
+
+        private final String interpreterId;
+
+        private final int weight;
+
+        Admission(String interpreterId, int weight) {
+            this.interpreterId = interpreterId;
+            this.weight = weight;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                used.computeIfPresent(interpreterId, (id, inUse) -> inUse > weight ? inUse - weight : null);
+                running--;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
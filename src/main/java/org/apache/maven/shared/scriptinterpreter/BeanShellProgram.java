@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bsh.CallStack;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.ParseException;
+import bsh.Parser;
+import bsh.Primitive;
+import bsh.TokenMgrError;
+
+/**
+ * A BeanShell script parsed into its syntax tree, so parsing and evaluation can happen (and be measured) separately.
+ * <code>Interpreter.eval(String)</code> interleaves both; this class replicates its evaluation loop over the parsed
+ * statements. BeanShell does not expose its syntax tree nodes publicly, so they are evaluated reflectively; if that is
+ * not possible, {@link #isSupported()} returns <code>false</code>.
+ *
+ * <p>Unlike <code>Interpreter.eval(String)</code>, a syntax error anywhere in the script fails the script before any
+ * statement is evaluated.
+ */
+final class BeanShellProgram {
+
+    private static final Method SET_SOURCE_FILE;
+
+    private static final Method EVAL;
+
+    private static final Class<?> RETURN_CONTROL;
+
+    private static final Field RETURN_VALUE;
+
+    private static final Method GET_NUM_CHILDREN;
+
+    private static final Method GET_CHILD;
+
+    private static final Class<?> CLASS_DECLARATION;
+
+    static {
+        Method setSourceFile = null;
+        Method eval = null;
+        Class<?> returnControl = null;
+        Field returnValue = null;
+        Method getNumChildren = null;
+        Method getChild = null;
+        Class<?> classDeclaration = null;
+        try {
+            Class<?> simpleNode = Class.forName("bsh.SimpleNode", false, Interpreter.class.getClassLoader());
+            setSourceFile = simpleNode.getMethod("setSourceFile", String.class);
+            setSourceFile.setAccessible(true);
+            eval = simpleNode.getMethod("eval", CallStack.class, Interpreter.class);
+            eval.setAccessible(true);
+            returnControl = Class.forName("bsh.ReturnControl", false, Interpreter.class.getClassLoader());
+            returnValue = returnControl.getField("value");
+            returnValue.setAccessible(true);
+            getNumChildren = simpleNode.getMethod("jjtGetNumChildren");
+            getNumChildren.setAccessible(true);
+            getChild = simpleNode.getMethod("jjtGetChild", int.class);
+            getChild.setAccessible(true);
+            classDeclaration = Class.forName("bsh.BSHClassDeclaration", false, Interpreter.class.getClassLoader());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            eval = null;
+        }
+        SET_SOURCE_FILE = setSourceFile;
+        EVAL = eval;
+        RETURN_CONTROL = returnControl;
+        RETURN_VALUE = returnValue;
+        GET_NUM_CHILDREN = getNumChildren;
+        GET_CHILD = getChild;
+        CLASS_DECLARATION = classDeclaration;
+    }
+
+    private final String sourceFileInfo;
+
+    private final List<Object> nodes;
+
+    private final boolean reusable;
+
+    private BeanShellProgram(String sourceFileInfo, List<Object> nodes, boolean reusable) {
+        this.sourceFileInfo = sourceFileInfo;
+        this.nodes = nodes;
+        this.reusable = reusable;
+    }
+
+    /**
+     * Tells whether scripts can be parsed ahead of their evaluation with the BeanShell version at hand.
+     *
+     * @return <code>true</code> if parsed scripts can be evaluated, <code>false</code> otherwise.
+     */
+    static boolean isSupported() {
+        return EVAL != null;
+    }
+
+    /**
+     * Parses the specified script.
+     *
+     * @param script The script contents, must not be <code>null</code>.
+     * @return The parsed script, never <code>null</code>.
+     * @throws EvalError If the script has syntax errors.
+     */
+    static BeanShellProgram parse(String script) throws EvalError {
+        // the same source info and trailing semicolon as Interpreter.eval(String)
+        String sourceFileInfo = "inline evaluation of: ``" + abbreviate(script) + "''";
+        Parser parser = new Parser(new StringReader(script + ";"));
+        List<Object> nodes = new ArrayList<>();
+        boolean reusable = true;
+        try {
+            boolean eof;
+            do {
+                eof = parser.Line();
+                Object node = parser.popNode();
+                if (node != null) {
+                    SET_SOURCE_FILE.invoke(node, sourceFileInfo);
+                    nodes.add(node);
+                    reusable = reusable && !declaresClass(node);
+                }
+            } while (!eof);
+        } catch (ParseException e) {
+            throw new EvalError(
+                    "Sourced file: " + sourceFileInfo + " parser Error: " + e.getMessage(false), null, null);
+        } catch (TokenMgrError e) {
+            throw new EvalError(
+                    "Sourced file: " + sourceFileInfo + " Token Parsing Error: " + e.getMessage(), null, null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access BeanShell syntax tree", e);
+        }
+        return new BeanShellProgram(sourceFileInfo, Collections.unmodifiableList(nodes), reusable);
+    }
+
+    /**
+     * Tells whether the syntax tree of the specified node contains a class declaration.
+     */
+    private static boolean declaresClass(Object node) throws ReflectiveOperationException {
+        if (CLASS_DECLARATION == null || CLASS_DECLARATION.isInstance(node)) {
+            return true;
+        }
+        int children = (Integer) GET_NUM_CHILDREN.invoke(node);
+        for (int i = 0; i < children; i++) {
+            if (declaresClass(GET_CHILD.invoke(node, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether this script can be evaluated more than once. The syntax tree caches the types it resolves, so a
+     * script declaring classes cannot be evaluated again: its next evaluation declares new classes, which do not match
+     * the cached types.
+     *
+     * <p>As the syntax tree caches resolved types and names, a program must not be evaluated concurrently, and must not
+     * be evaluated again after the class path or the prelude changed.
+     *
+     * @return <code>true</code> if the script can be evaluated repeatedly, <code>false</code> otherwise.
+     */
+    boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Evaluates this script in the global namespace of the specified interpreter.
+     *
+     * @param interpreter The interpreter, must not be <code>null</code>.
+     * @return The result of the script, can be <code>null</code>.
+     * @throws EvalError If the evaluation failed.
+     */
+    Object eval(Interpreter interpreter) throws EvalError {
+        NameSpace nameSpace = interpreter.getNameSpace();
+        CallStack callstack = new CallStack(nameSpace);
+        Object result = null;
+        for (Object node : nodes) {
+            try {
+                result = EVAL.invoke(node, callstack, interpreter);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof EvalError) {
+                    ((EvalError) cause).reThrow("Sourced file: " + sourceFileInfo);
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new EvalError(
+                        "Sourced file: " + sourceFileInfo + " unknown error: " + cause.getMessage(), null, callstack);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access BeanShell syntax tree", e);
+            } finally {
+                if (callstack.depth() > 1) {
+                    callstack.clear();
+                    callstack.push(nameSpace);
+                }
+            }
+
+            if (RETURN_CONTROL.isInstance(result)) {
+                try {
+                    result = RETURN_VALUE.get(result);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot access BeanShell syntax tree", e);
+                }
+                break;
+            }
+        }
+        return Primitive.unwrap(result);
+    }
+
+    private static String abbreviate(String script) {
+        String text = script.replace('\n', ' ').replace('\r', ' ');
+        return text.length() > 80 ? text.substring(0, 80) + " . . . " : text;
+    }
+}
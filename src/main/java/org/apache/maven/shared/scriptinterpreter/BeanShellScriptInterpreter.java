@@ -24,13 +24,19 @@ import java.io.PrintStream;
 import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.ReentrantLock;
 
 import bsh.Capabilities;
 import bsh.EvalError;
 import bsh.Interpreter;
+import bsh.NameSpace;
 import bsh.TargetError;
 
 /**
@@ -38,52 +44,49 @@ import bsh.TargetError;
  *
  * @author Benjamin Bentmann
  */
-class BeanShellScriptInterpreter implements ScriptInterpreter {
+class BeanShellScriptInterpreter implements PhasedScriptInterpreter {
 
-    private static class ChildFirstURLClassLoader extends URLClassLoader {
-        ChildFirstURLClassLoader() {
-            super(new URL[] {}, Thread.currentThread().getContextClassLoader());
-        }
+    static final int MAX_CACHED_PROGRAMS = 256;
 
-        @Override
-        public void addURL(URL url) {
-            super.addURL(url);
-        }
+    static final int MAX_IDLE_PROGRAMS = 16;
 
-        @Override
-        protected synchronized Class<?> loadClass(final String name, final boolean resolve)
-                throws ClassNotFoundException {
+    static final int MAX_IDLE_ENGINES = 16;
 
-            Class<?> c = findLoadedClass(name);
-            if (c != null) {
-                return c;
-            }
+    private final ChildFirstURLClassLoader classLoader =
+            new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader());
 
-            try {
-                c = super.findClass(name);
-            } catch (ClassNotFoundException e) {
-                // ignore
-            }
+    /**
+     * The namespace holding the definitions of the prelude or <code>null</code> if there is no prelude.
+     */
+    private volatile NameSpace prelude;
 
-            if (c == null) {
-                c = super.loadClass(name, resolve);
-            }
+    /**
+     * The engines evaluating expressions which are currently not in use.
+     */
+    private final LinkedBlockingDeque<PooledEngine> idleEngines = new LinkedBlockingDeque<>(MAX_IDLE_ENGINES);
 
-            if (resolve) {
-                resolveClass(c);
-            }
+    private final ReentrantLock programsLock = new ReentrantLock();
 
-            return c;
-        }
+    /**
+     * The parsed scripts which are currently not in use, indexed by their contents, least recently used first, guarded
+     * by {@link #programsLock}. Syntax trees are not thread-safe, so each evaluation checks out a tree of its own. Only
+     * scripts which can be evaluated repeatedly are cached.
+     */
+    private final Map<String, Deque<BeanShellProgram>> programs =
+            new LinkedHashMap<String, Deque<BeanShellProgram>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
 
-        @Override
-        public URL getResource(final String name) {
-            URL url = findResource(name);
-            return url != null ? url : super.getResource(name);
-        }
-    }
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Deque<BeanShellProgram>> eldest) {
+                    return size() > MAX_CACHED_PROGRAMS;
+                }
+            };
 
-    private final ChildFirstURLClassLoader classLoader = new ChildFirstURLClassLoader();
+    /**
+     * The number of times the cached programs were dropped, so that programs checked out before are not returned to
+     * the cache.
+     */
+    private volatile long programsGeneration;
 
     @Override
     public void setClassPath(List<String> classPath) {
@@ -92,6 +95,59 @@ class BeanShellScriptInterpreter implements ScriptInterpreter {
         }
 
         classPath.stream().map(this::toUrl).forEach(classLoader::addURL);
+        clearPrograms();
+    }
+
+    @Override
+    public void preloadClasses(Collection<String> classNames) {
+        classLoader.preload(classNames);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The prelude is evaluated once into a namespace which is the parent of the global namespace of every script,
+     * so its methods, imports and variables are visible to all scripts. Note that variables of the prelude are shared
+     * by all scripts and that methods of the prelude are scoped to the prelude, so they cannot see the variables of
+     * the scripts unless these are passed as arguments.
+     */
+    @Override
+    public void setPrelude(String script) throws ScriptEvaluationException {
+        if (script == null) {
+            prelude = null;
+            clearPrograms();
+            return;
+        }
+
+        Interpreter engine = new Interpreter();
+        engine.setClassLoader(classLoader);
+        ClassLoader curentClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            engine.eval(script);
+        } catch (TargetError e) {
+            throw new ScriptEvaluationException(e.getTarget());
+        } catch (EvalError e) {
+            throw new ScriptEvaluationException(e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(curentClassLoader);
+        }
+        prelude = engine.getNameSpace();
+        clearPrograms();
+    }
+
+    /**
+     * Drops the parsed scripts, whose syntax tree nodes may have resolved names against the previous prelude or class
+     * path.
+     */
+    private void clearPrograms() {
+        programsLock.lock();
+        try {
+            programs.clear();
+            programsGeneration++;
+        } finally {
+            programsLock.unlock();
+        }
     }
 
     private URL toUrl(String path) {
@@ -102,47 +158,77 @@ class BeanShellScriptInterpreter implements ScriptInterpreter {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The script is parsed completely before it is evaluated, unless the BeanShell version at hand does not allow
+     * this. The parsed scripts are cached by their contents, so identical scripts of many projects are parsed only
+     * once per concurrent evaluation, except for scripts declaring classes. If requested, the variables of the global
+     * namespace of the script are written back to the variables map afterwards, like a Groovy binding does.
+     *
+     * <p>Expressions are evaluated by pooled engines in a fresh global namespace, which saves the setup of a new engine
+     * per evaluation.
+     */
     @Override
-    public Object evaluateScript(String script, Map<String, ?> globalVariables, PrintStream scriptOutput)
+    public Object evaluateScript(
+            String script,
+            Map<String, ?> globalVariables,
+            PrintStream scriptOutput,
+            EvaluationOptions options,
+            EvaluationTimings timings)
             throws ScriptEvaluationException {
-        PrintStream origOut = System.out;
-        PrintStream origErr = System.err;
-
-        try {
-            Interpreter engine = new Interpreter();
+        boolean expression = options.isExpression() && BeanShellProgram.isSupported();
+        try (SystemStreams.Redirection ignored = SystemStreams.redirect(scriptOutput)) {
+            PooledEngine pooled = expression ? idleEngines.pollFirst() : null;
+            if (expression && pooled == null) {
+                pooled = new PooledEngine(newEngine(scriptOutput));
+            }
+            Interpreter engine = pooled != null ? pooled.engine : newEngine(scriptOutput);
 
             if (scriptOutput != null) {
-                System.setErr(scriptOutput);
-                System.setOut(scriptOutput);
                 engine.setErr(scriptOutput);
                 engine.setOut(scriptOutput);
             }
 
-            if (!Capabilities.haveAccessibility()) {
-                try {
-                    Capabilities.setAccessibility(true);
-                } catch (Exception e) {
-                    if (scriptOutput != null) {
-                        e.printStackTrace(scriptOutput);
-                    }
-                }
+            NameSpace parent = prelude;
+            if (pooled != null) {
+                engine.setNameSpace(
+                        new NameSpace(parent != null ? parent : pooled.root, engine.getClassManager(), "global"));
+            } else if (parent != null) {
+                engine.setNameSpace(new NameSpace(parent, engine.getClassManager(), "global"));
             }
 
-            engine.setClassLoader(classLoader);
-
-            if (globalVariables != null) {
-                for (Map.Entry<String, ?> entry : globalVariables.entrySet()) {
-                    try {
-                        engine.set(entry.getKey(), entry.getValue());
-                    } catch (EvalError e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
             ClassLoader curentClassLoader = Thread.currentThread().getContextClassLoader();
             try {
+                if (globalVariables != null) {
+                    for (Map.Entry<String, ?> entry : globalVariables.entrySet()) {
+                        try {
+                            engine.set(entry.getKey(), entry.getValue());
+                        } catch (EvalError e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+
                 Thread.currentThread().setContextClassLoader(classLoader);
-                return engine.eval(script);
+                long generation = programsGeneration;
+                BeanShellProgram program = null;
+                if (BeanShellProgram.isSupported()) {
+                    program = checkOutProgram(script, options, timings);
+                }
+                long start = System.nanoTime();
+                try {
+                    Object result = program != null ? program.eval(engine) : engine.eval(script);
+                    if (options.isExportVariables() && globalVariables != null) {
+                        exportVariables(engine, globalVariables);
+                    }
+                    if (program != null) {
+                        checkInProgram(script, program, generation);
+                    }
+                    return result;
+                } finally {
+                    timings.ran(System.nanoTime() - start);
+                }
             } catch (TargetError e) {
                 throw new ScriptEvaluationException(e.getTarget());
             } catch (ThreadDeath e) {
@@ -151,15 +237,129 @@ class BeanShellScriptInterpreter implements ScriptInterpreter {
                 throw new ScriptEvaluationException(e);
             } finally {
                 Thread.currentThread().setContextClassLoader(curentClassLoader);
+                if (pooled != null) {
+                    pooled.reset();
+                    idleEngines.offerFirst(pooled);
+                }
+            }
+        }
+    }
+
+    private Interpreter newEngine(PrintStream scriptOutput) {
+        Interpreter engine = new Interpreter();
+
+        if (!Capabilities.haveAccessibility()) {
+            try {
+                Capabilities.setAccessibility(true);
+            } catch (Exception e) {
+                if (scriptOutput != null) {
+                    e.printStackTrace(scriptOutput);
+                }
+            }
+        }
+
+        engine.setClassLoader(classLoader);
+        return engine;
+    }
+
+    private static BeanShellProgram parse(String script, EvaluationOptions options, EvaluationTimings timings)
+            throws EvalError {
+        long start = System.nanoTime();
+        ScriptEvents.Event event = ScriptEvents.COMPILED.begin();
+        BeanShellProgram program = BeanShellProgram.parse(script);
+        event.commit(options.getScriptName(), "bsh", (long) script.length(), 0L);
+        timings.compiled(System.nanoTime() - start);
+        return program;
+    }
+
+    /**
+     * Takes a parsed form of the specified script from the cache for exclusive use, parsing the script if no cached
+     * form is idle.
+     */
+    private BeanShellProgram checkOutProgram(String script, EvaluationOptions options, EvaluationTimings timings)
+            throws EvalError {
+        programsLock.lock();
+        try {
+            Deque<BeanShellProgram> idle = programs.get(script);
+            BeanShellProgram program = idle != null ? idle.pollFirst() : null;
+            if (program != null) {
+                return program;
             }
         } finally {
-            System.setErr(origErr);
-            System.setOut(origOut);
+            programsLock.unlock();
+        }
+
+        return parse(script, options, timings);
+    }
+
+    /**
+     * Returns a parsed form of the specified script to the cache after a successful evaluation, unless the cache was
+     * dropped since the program was checked out.
+     */
+    private void checkInProgram(String script, BeanShellProgram program, long generation) {
+        if (!program.isReusable()) {
+            return;
+        }
+        programsLock.lock();
+        try {
+            if (generation == programsGeneration) {
+                Deque<BeanShellProgram> idle = programs.computeIfAbsent(script, k -> new ArrayDeque<>());
+                if (idle.size() < MAX_IDLE_PROGRAMS) {
+                    idle.offerFirst(program);
+                }
+            }
+        } finally {
+            programsLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void exportVariables(Interpreter engine, Map<String, ?> variables) throws EvalError {
+        Map<String, Object> target = (Map<String, Object>) variables;
+        for (String name : engine.getNameSpace().getVariableNames()) {
+            if (!"bsh".equals(name)) {
+                target.put(name, engine.get(name));
+            }
         }
     }
 
     @Override
     public void close() throws IOException {
+        idleEngines.clear();
+        clearPrograms();
         classLoader.close();
     }
+
+    /**
+     * An engine which is reused for expressions, together with its initial state.
+     */
+    private static final class PooledEngine {
+
+        private final Interpreter engine;
+
+        /**
+         * The initial global namespace of the engine, holding its <code>bsh</code> object.
+         */
+        private final NameSpace root;
+
+        private final PrintStream out;
+
+        private final PrintStream err;
+
+        PooledEngine(Interpreter engine) {
+            this.engine = engine;
+            this.root = engine.getNameSpace();
+            this.out = engine.getOut();
+            this.err = engine.getErr();
+        }
+
+        /**
+         * Drops the references to the last evaluation.
+         */
+        void reset() {
+            engine.setNameSpace(root);
+            engine.setOut(out);
+            engine.setErr(err);
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class loader which looks up classes and resources in its own URLs before delegating to its parent. Loading is
+ * coordinated with one {@link ReentrantLock} per class name instead of monitors, so that concurrent script evaluations
+ * (including evaluations on virtual threads) do not pin their carrier threads while loading classes.
+ *
+ * <p>Lookups in the own URLs are guarded by a {@link ClassPathIndex}, so classes and resources from packages which are
+ * not in the class path (like those of the JDK or the plugin realm) are delegated to the parent right away instead of
+ * searching every jar.
+ */
+class ChildFirstURLClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChildFirstURLClassLoader.class);
+
+    private final ConcurrentMap<String, ReentrantLock> loadingLocks = new ConcurrentHashMap<>();
+
+    private final ReentrantLock indexLock = new ReentrantLock();
+
+    /**
+     * The external forms of the URLs added so far, guarded by {@link #indexLock}.
+     */
+    private final Set<String> urls = new HashSet<>();
+
+    /**
+     * The index of the current URLs, or <code>null</code> if it needs to be (re-)built.
+     */
+    private volatile ClassPathIndex index;
+
+    ChildFirstURLClassLoader(ClassLoader parent) {
+        super(new URL[] {}, parent);
+    }
+
+    /**
+     * Appends the specified URL unless it was added before, so that repeated class path updates do not make every
+     * later lookup search the same location again.
+     *
+     * @param url The URL to add, may be <code>null</code>.
+     */
+    @Override
+    public void addURL(URL url) {
+        if (url == null) {
+            return;
+        }
+        indexLock.lock();
+        try {
+            if (urls.add(url.toExternalForm())) {
+                super.addURL(url);
+                index = null;
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Loads the specified classes in parallel, ignoring classes which cannot be loaded.
+     *
+     * @param classNames The binary names of the classes to load, must not be <code>null</code>.
+     */
+    void preload(Collection<String> classNames) {
+        classNames.parallelStream().forEach(name -> {
+            try {
+                loadClass(name, false);
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOG.debug("Cannot preload class {}: {}", name, e.toString());
+            }
+        });
+    }
+
+    private ClassPathIndex index() {
+        ClassPathIndex current = index;
+        if (current == null) {
+            indexLock.lock();
+            try {
+                current = index;
+                if (current == null) {
+                    current = ClassPathIndex.build(getURLs());
+                    index = current;
+                }
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        Class<?> c = findLoadedClass(name);
+
+        if (c == null) {
+            ReentrantLock lock = loadingLocks.computeIfAbsent(name, k -> new ReentrantLock());
+            lock.lock();
+            try {
+                c = findLoadedClass(name);
+                if (c == null) {
+                    c = loadChildFirst(name);
+                }
+            } finally {
+                lock.unlock();
+                // once defined, the class is found without the lock; misses are rare enough to repeat
+                loadingLocks.remove(name, lock);
+            }
+        }
+
+        if (resolve) {
+            resolveClass(c);
+        }
+
+        return c;
+    }
+
+    private Class<?> loadChildFirst(String name) throws ClassNotFoundException {
+        if (!name.startsWith("java.") && index().mayContainClass(name)) {
+            try {
+                return findClass(name);
+            } catch (ClassNotFoundException e) {
+                // ignore
+            }
+        }
+
+        ClassLoader parent = getParent();
+        if (parent == null) {
+            return super.loadClass(name, false);
+        }
+        return parent.loadClass(name);
+    }
+
+    @Override
+    public URL getResource(final String name) {
+        URL url = index().mayContainResource(name) ? findResource(name) : null;
+        if (url != null) {
+            return url;
+        }
+        // the own URLs were searched already (or ruled out by the index), so only the parent is left
+        ClassLoader parent = getParent();
+        if (parent == null) {
+            // the bootstrap loader has no public lookup, the platform loader delegates to it
+            parent = ClassLoader.getSystemClassLoader().getParent();
+        }
+        return parent.getResource(name);
+    }
+}
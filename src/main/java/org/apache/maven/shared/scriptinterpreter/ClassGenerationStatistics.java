@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the class loaders and classes an interpreter creates while compiling scripts.
+ */
+final class ClassGenerationStatistics {
+
+    private final LongAdder loadersCreated = new LongAdder();
+
+    private final LongAdder loadersRecycled = new LongAdder();
+
+    private final LongAdder classesDefined = new LongAdder();
+
+    private final LongAdder classBytes = new LongAdder();
+
+    void loaderCreated() {
+        loadersCreated.increment();
+    }
+
+    void loaderRecycled() {
+        loadersRecycled.increment();
+    }
+
+    void classDefined(int bytes) {
+        classesDefined.increment();
+        classBytes.add(bytes);
+    }
+
+    long getLoadersCreated() {
+        return loadersCreated.sum();
+    }
+
+    long getLoadersRecycled() {
+        return loadersRecycled.sum();
+    }
+
+    long getClassesDefined() {
+        return classesDefined.sum();
+    }
+
+    long getClassBytes() {
+        return classBytes.sum();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the packages (as directory names like <code>org/example</code>) found in the jar files and directories of a
+ * class path. Jar files are indexed by reading their central directory, and the package sets of the most recently used
+ * jar files are cached process-wide, keyed by path, size and modification time, so class paths sharing jars are
+ * indexed only once. Directories are walked once when the index is built, so lookups never touch the file system:
+ * classes and resources written later to a package directory which already existed (e.g. to
+ * <code>target/classes</code>) are found, while packages created later are only found once the index is rebuilt.
+ *
+ * <p>The index is used to skip class path lookups for classes and resources which cannot be found in the class path.
+ */
+final class ClassPathIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClassPathIndex.class);
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final String VERSIONS = "META-INF/versions/";
+
+    static final int MAX_CACHED_JARS = 1024;
+
+    private static final ReentrantLock JAR_CACHE_LOCK = new ReentrantLock();
+
+    /**
+     * The packages of the most recently indexed jar files, guarded by {@link #JAR_CACHE_LOCK}.
+     */
+    private static final Map<JarKey, Set<String>> JAR_CACHE = new LinkedHashMap<JarKey, Set<String>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<JarKey, Set<String>> eldest) {
+            return size() > MAX_CACHED_JARS;
+        }
+    };
+
+    private final Set<String> packages;
+
+    /**
+     * Whether some class path entries could not be indexed, in which case the index cannot rule out any lookup.
+     */
+    private final boolean complete;
+
+    private ClassPathIndex(Set<String> packages, boolean complete) {
+        this.packages = packages;
+        this.complete = complete;
+    }
+
+    /**
+     * Builds the index for the specified class path.
+     *
+     * @param urls The class path, must not be <code>null</code>.
+     * @return The index, never <code>null</code>.
+     */
+    static ClassPathIndex build(URL[] urls) {
+        Set<String> packages = new HashSet<>();
+        boolean complete = true;
+
+        for (URL url : urls) {
+            try {
+                if (!"file".equals(url.getProtocol())) {
+                    throw new IOException("Unsupported protocol");
+                }
+                Path path = new File(url.toURI()).toPath();
+                if (Files.isDirectory(path)) {
+                    packagesOfDirectory(path, packages);
+                } else if (Files.isRegularFile(path)) {
+                    packages.addAll(packagesOfJar(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                }
+                // a missing entry cannot contain anything
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                LOG.debug("Cannot index class path entry {}: {}", url, e.getMessage());
+                complete = false;
+            }
+        }
+
+        return new ClassPathIndex(packages, complete);
+    }
+
+    /**
+     * Tells whether the specified resource may be found in the class path.
+     *
+     * @param resourceName The resource name like <code>org/example/Foo.class</code>, must not be <code>null</code>.
+     * @return <code>false</code> if the resource is definitely not in the class path, <code>true</code> otherwise.
+     */
+    boolean mayContainResource(String resourceName) {
+        if (!complete) {
+            return true;
+        }
+        int index = resourceName.lastIndexOf('/');
+        return packages.contains(index > 0 ? resourceName.substring(0, index) : "");
+    }
+
+    /**
+     * Tells whether the specified class may be found in the class path.
+     *
+     * @param className The binary name of the class, must not be <code>null</code>.
+     * @return <code>false</code> if the class is definitely not in the class path, <code>true</code> otherwise.
+     */
+    boolean mayContainClass(String className) {
+        if (!complete) {
+            return true;
+        }
+        int index = className.lastIndexOf('.');
+        return packages.contains(index > 0 ? className.substring(0, index).replace('.', '/') : "");
+    }
+
+    /**
+     * Records all directories below the specified class path directory as packages, whether they contain files yet or
+     * not, so that files written to them later are found.
+     */
+    private static void packagesOfDirectory(Path root, Set<String> packages) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                packages.add(root.relativize(dir).toString().replace(File.separatorChar, '/'));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Set<String> packagesOfJar(Path jar, BasicFileAttributes attributes) throws IOException {
+        JarKey key = new JarKey(
+                jar.toAbsolutePath().toString(),
+                attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+        JAR_CACHE_LOCK.lock();
+        try {
+            Set<String> packages = JAR_CACHE.get(key);
+            if (packages != null) {
+                return packages;
+            }
+        } finally {
+            JAR_CACHE_LOCK.unlock();
+        }
+
+        Set<String> packages = packagesOfJar(jar);
+        JAR_CACHE_LOCK.lock();
+        try {
+            JAR_CACHE.put(key, packages);
+        } finally {
+            JAR_CACHE_LOCK.unlock();
+        }
+        return packages;
+    }
+
+    static Set<String> packagesOfJar(Path jar) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailLength = (int) Math.min(size, MAX_COMMENT_LENGTH + 22);
+            ByteBuffer tail = read(channel, size - tailLength, tailLength);
+
+            int end = -1;
+            for (int i = tailLength - 22; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new IOException("No central directory found in " + jar);
+            }
+
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+                // ZIP64 archive, let the JDK deal with it
+                return packagesOfZip64(jar);
+            }
+            if (directorySize > Integer.MAX_VALUE) {
+                return packagesOfZip64(jar);
+            }
+            if (directoryOffset + directorySize > size) {
+                throw new IOException("Truncated central directory in " + jar);
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+
+            Set<String> packages = new HashSet<>();
+            byte[] name = new byte[256];
+            int position = 0;
+            while (position + 46 <= directorySize && directory.getInt(position) == CENTRAL_DIRECTORY_ENTRY) {
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+
+                int slash = -1;
+                for (int i = nameLength - 1; i >= 0; i--) {
+                    if (directory.get(position + 46 + i) == '/') {
+                        slash = i;
+                        break;
+                    }
+                }
+                if (slash < 0) {
+                    packages.add("");
+                } else if (slash < nameLength - 1) {
+                    // a file, directory entries alone do not make a package
+                    if (name.length < slash) {
+                        name = new byte[slash];
+                    }
+                    for (int i = 0; i < slash; i++) {
+                        name[i] = directory.get(position + 46 + i);
+                    }
+                    addPackage(packages, new String(name, 0, slash, StandardCharsets.UTF_8));
+                }
+
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return packages;
+        }
+    }
+
+    /**
+     * Reads a part of a file into a heap buffer. Unlike a memory mapping, this does not keep the file locked (on
+     * Windows) until the buffer is garbage collected.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Set<String> packagesOfZip64(Path jar) throws IOException {
+        Set<String> packages = new HashSet<>();
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    int slash = entry.getName().lastIndexOf('/');
+                    addPackage(packages, slash > 0 ? entry.getName().substring(0, slash) : "");
+                }
+            }
+        }
+        return packages;
+    }
+
+    private static void addPackage(Set<String> packages, String name) {
+        packages.add(name);
+        if (name.startsWith(VERSIONS)) {
+            // classes of multi-release jars may only exist in a versioned directory
+            int slash = name.indexOf('/', VERSIONS.length());
+            packages.add(slash > 0 ? name.substring(slash + 1) : "");
+        }
+    }
+
+    private static final class JarKey {
+
+        private final String path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        JarKey(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof JarKey)) {
+                return false;
+            }
+            JarKey other = (JarKey) obj;
+            return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + Long.hashCode(size ^ lastModified);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+/**
+ * The options of a script evaluation, passed to a {@link PhasedScriptInterpreter}.
+ */
+final class EvaluationOptions {
+
+    /**
+     * The options of an evaluation without a script name, which neither exports variables nor is an expression.
+     */
+    static final EvaluationOptions DEFAULT = new EvaluationOptions(null, false, false);
+
+    private final String scriptName;
+
+    private final boolean exportVariables;
+
+    private final boolean expression;
+
+    /**
+     * Creates new options for an evaluation.
+     *
+     * @param scriptName The name of the evaluated script for diagnostics, like its path, may be <code>null</code>.
+     * @param exportVariables Whether the top-level variables assigned by the script are written back to the (mutable)
+     *            variables map of the evaluation, so later scripts of a {@link ScriptSession} see them.
+     * @param expression Whether the script is a short expression, which is worth caching in its parsed form and
+     *            evaluating with as little setup as possible.
+     */
+    EvaluationOptions(String scriptName, boolean exportVariables, boolean expression) {
+        this.scriptName = scriptName;
+        this.exportVariables = exportVariables;
+        this.expression = expression;
+    }
+
+    String getScriptName() {
+        return scriptName;
+    }
+
+    boolean isExportVariables() {
+        return exportVariables;
+    }
+
+    boolean isExpression() {
+        return expression;
+    }
+}
@@ -25,6 +25,8 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>FileLogger class.</p>
@@ -41,6 +43,11 @@ public class FileLogger implements ExecutionLogger, AutoCloseable {
      */
     private PrintStream stream;
 
+    /**
+     * The factory creating the output stream or <code>null</code> to use {@link #createOutputStream(Path)} defaults.
+     */
+    private final FileLoggerOutputFactory outputFactory;
+
     /**
      * Creates a new logger that writes to the specified file.
      *
@@ -59,14 +66,35 @@ public class FileLogger implements ExecutionLogger, AutoCloseable {
      * @throws java.io.IOException If the output file could not be created.
      */
     public FileLogger(File outputFile, FileLoggerMirrorHandler mirrorHandler) throws IOException {
+        this(outputFile, mirrorHandler, null);
+    }
+
+    /**
+     * Creates a new logger that writes to the specified file through the given output factory, e.g. to compress or
+     * rotate the log, and optionally mirrors messages.
+     *
+     * @param outputFile    The path to the output file, if null all message will be discarded.
+     * @param mirrorHandler The class which handle mirrored message, can be <code>null</code>.
+     * @param outputFactory The factory creating the output stream, can be <code>null</code> to write a plain file.
+     * @throws java.io.IOException If the output file could not be created.
+     * @since 1.8
+     */
+    public FileLogger(File outputFile, FileLoggerMirrorHandler mirrorHandler, FileLoggerOutputFactory outputFactory)
+            throws IOException {
         this.file = outputFile;
+        this.outputFactory = outputFactory;
 
         OutputStream outputStream;
 
         if (outputFile != null) {
             Path outputPath = outputFile.toPath();
-            Files.createDirectories(outputPath.getParent());
+            if (outputFactory == null) {
+                Files.createDirectories(outputPath.getParent());
+            }
             outputStream = createOutputStream(outputPath);
+            if (ScriptEvents.isAvailable()) {
+                outputStream = new FlushEventStream(outputStream, outputFile.getPath());
+            }
         } else {
             outputStream = new NullOutputStream();
         }
@@ -82,14 +110,19 @@ public class FileLogger implements ExecutionLogger, AutoCloseable {
      * <p>Override this method to create a custom output stream.
      *
      * <p>By default, stream is created with {@link Files#newOutputStream(Path, OpenOption...)},
-     * which truncate the existing file.
+     * which truncate the existing file, unless an output factory has been given.
      */
     protected OutputStream createOutputStream(Path outputPath) throws IOException {
+        if (outputFactory != null) {
+            return outputFactory.createOutputStream(outputPath);
+        }
         return Files.newOutputStream(outputPath);
     }
 
     /**
-     * Gets the path to the output file.
+     * Gets the path to the output file. With an output factory the log may be stored elsewhere, e.g.
+     * {@link FileLoggerOutputFactory#gzip()} writes it to this path with <code>.gz</code> appended and a
+     * {@link SegmentedLogFile} stores it as a segment of the shared file.
      *
      * @return The path to the output file, never <code>null</code>.
      */
@@ -135,6 +168,8 @@ public class FileLogger implements ExecutionLogger, AutoCloseable {
 
         private final FileLoggerMirrorHandler mirrorHandler;
 
+        private final ReentrantLock lock = new ReentrantLock();
+
         private StringBuilder lineBuffer;
 
         MirrorStreamWrapper(OutputStream outputStream, FileLoggerMirrorHandler mirrorHandler) {
@@ -145,45 +180,111 @@ public class FileLogger implements ExecutionLogger, AutoCloseable {
 
         @Override
         public void write(int b) throws IOException {
-            out.write(b);
-            lineBuffer.append((char) (b));
+            lock.lock();
+            try {
+                out.write(b);
+                lineBuffer.append((char) (b));
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            out.write(b, off, len);
-            lineBuffer.append(new String(b, off, len));
+            lock.lock();
+            try {
+                out.write(b, off, len);
+                lineBuffer.append(new String(b, off, len));
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
         public void flush() throws IOException {
-            out.flush();
+            lock.lock();
+            try {
+                out.flush();
 
-            int len = lineBuffer.length();
-            if (len == 0) {
-                // nothing to log
-                return;
+                int len = lineBuffer.length();
+                if (len == 0) {
+                    // nothing to log
+                    return;
+                }
+
+                // remove line end for log
+                while (len > 0 && (lineBuffer.charAt(len - 1) == '\n' || lineBuffer.charAt(len - 1) == '\r')) {
+                    len--;
+                }
+                lineBuffer.setLength(len);
+
+                mirrorHandler.consumeOutput(lineBuffer.toString());
+
+                // clear buffer
+                lineBuffer = new StringBuilder();
+            } finally {
+                lock.unlock();
             }
+        }
 
-            // remove line end for log
-            while (len > 0 && (lineBuffer.charAt(len - 1) == '\n' || lineBuffer.charAt(len - 1) == '\r')) {
-                len--;
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                flush();
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            } finally {
+                lock.unlock();
             }
-            lineBuffer.setLength(len);
+        }
+    }
+
+    /**
+     * Emits a Flight Recorder event for each flush, with the number of bytes written since the previous one.
+     */
+    private static class FlushEventStream extends OutputStream {
+        private final OutputStream out;
+
+        private final String path;
 
-            mirrorHandler.consumeOutput(lineBuffer.toString());
+        private final AtomicLong pending = new AtomicLong();
 
-            // clear buffer
-            lineBuffer = new StringBuilder();
+        FlushEventStream(OutputStream out, String path) {
+            this.out = out;
+            this.path = path;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            pending.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            pending.addAndGet(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long bytes = pending.getAndSet(0);
+            if (bytes == 0) {
+                out.flush();
+                return;
+            }
+            ScriptEvents.Event event = ScriptEvents.LOGGER_FLUSHED.begin();
+            out.flush();
+            event.commit(path, bytes);
         }
 
         @Override
         public void close() throws IOException {
             flush();
-            if (out != null) {
-                out.close();
-                out = null;
-            }
+            out.close();
         }
     }
 
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Creates the output stream a {@link FileLogger} writes to. Implementations are responsible for creating any parent
+ * directories they need.
+ *
+ * @since 1.8
+ */
+@FunctionalInterface
+public interface FileLoggerOutputFactory {
+
+    /**
+     * Creates the output stream for the specified log file.
+     *
+     * @param outputPath The path to the log file, never <code>null</code>.
+     * @return The output stream to write the log to, never <code>null</code>.
+     * @throws IOException If the output stream could not be created.
+     */
+    OutputStream createOutputStream(Path outputPath) throws IOException;
+
+    /**
+     * Creates a factory writing GZIP compressed log files. The compressed log is written to the requested path with
+     * <code>.gz</code> appended, unless the path already ends with it, so no compressed data ends up in a file
+     * readers expect to be plain text. Flushing the logger does not force a sync flush of the compressor, so the
+     * compressed data is only complete once the logger has been closed.
+     *
+     * @return The factory, never <code>null</code>.
+     */
+    static FileLoggerOutputFactory gzip() {
+        return outputPath -> {
+            Files.createDirectories(outputPath.getParent());
+            Path gzipPath = outputPath.getFileName().toString().endsWith(".gz")
+                    ? outputPath
+                    : outputPath.resolveSibling(outputPath.getFileName() + ".gz");
+            return new GZIPOutputStream(Files.newOutputStream(gzipPath), 8192);
+        };
+    }
+
+    /**
+     * Creates a factory writing log files which are rotated once they reach the given size. The current log is
+     * always written to the requested path, older logs are renamed to <code>path.1</code>, <code>path.2</code>, etc.
+     * Like a plain log file is truncated, rotated files left over from a previous logger for the same path are deleted.
+     *
+     * @param maxFileSize The size in bytes after which the log file is rotated, must be positive.
+     * @param maxBackups The number of rotated files to keep, may be <code>0</code> to discard rotated content.
+     * @return The factory, never <code>null</code>.
+     */
+    static FileLoggerOutputFactory rotating(long maxFileSize, int maxBackups) {
+        if (maxFileSize <= 0) {
+            throw new IllegalArgumentException("maxFileSize must be positive: " + maxFileSize);
+        }
+        if (maxBackups < 0) {
+            throw new IllegalArgumentException("maxBackups must not be negative: " + maxBackups);
+        }
+        return outputPath -> {
+            Files.createDirectories(outputPath.getParent());
+            return new BufferedOutputStream(new RotatingOutputStream(outputPath, maxFileSize, maxBackups));
+        };
+    }
+}
@@ -22,25 +22,90 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
 import groovy.lang.GroovyShell;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.CompilationUnit;
 import org.codehaus.groovy.control.CompilerConfiguration;
-import org.codehaus.groovy.tools.RootLoader;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.runtime.InvokerHelper;
 
 /**
  * Provides a facade to evaluate Groovy scripts.
  *
+ * <p>Scripts are compiled with one long-lived class loader and the compiled classes are cached by script text, so
+ * repeated evaluations of the same script reuse its class, call sites and meta classes. The cache is bounded: evicted
+ * classes are removed from the meta class registry and, as each compilation is defined by its own inner loader, can be
+ * unloaded by the JVM. Scripts which declare classes or static fields are compiled anew for every evaluation, so that
+ * identical scripts of different projects never share static state.
+ *
  * @author Benjamin Bentmann
  */
-class GroovyScriptInterpreter implements ScriptInterpreter {
+class GroovyScriptInterpreter implements PhasedScriptInterpreter {
+
+    static final int DEFAULT_MAX_COMPILED_SCRIPTS = 64;
+
+    private static final AtomicInteger SCRIPT_COUNTER = new AtomicInteger();
+
+    private final ChildFirstURLClassLoader childFirstLoader =
+            new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader());
+
+    /**
+     * The prelude compiled into its own class loader or <code>null</code> if there is no prelude.
+     */
+    private volatile Prelude prelude;
+
+    /**
+     * The name of the base class of the scripts or <code>null</code> to use {@link Script}.
+     */
+    private volatile String scriptBaseClass;
 
-    private final RootLoader childFirstLoader =
-            new RootLoader(new URL[] {}, Thread.currentThread().getContextClassLoader());
+    private final ReentrantLock scriptsLock = new ReentrantLock();
+
+    /**
+     * The loader compiling the scripts or <code>null</code> if it needs to be (re-)created, guarded by
+     * {@link #scriptsLock}.
+     */
+    private ScriptClassLoader scriptLoader;
+
+    /**
+     * The compiled scripts indexed by script text in access order, guarded by {@link #scriptsLock}.
+     */
+    private final LinkedHashMap<String, CompiledScript> compiledScripts = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int maxCompiledScripts = DEFAULT_MAX_COMPILED_SCRIPTS;
+
+    /**
+     * The number of evaluations after which the script loader is recycled, <code>0</code> for no limit, guarded by
+     * {@link #scriptsLock}.
+     */
+    private int maxEvaluationsPerLoader;
+
+    /**
+     * The number of generated class bytes after which the script loader is recycled, <code>0</code> for no limit,
+     * guarded by {@link #scriptsLock}.
+     */
+    private long maxClassBytesPerLoader;
+
+    private final ClassGenerationStatistics statistics = new ClassGenerationStatistics();
 
     @Override
     public void setClassPath(List<String> classPath) {
@@ -49,6 +114,108 @@ class GroovyScriptInterpreter implements ScriptInterpreter {
         }
 
         classPath.stream().map(this::toUrl).forEach(childFirstLoader::addURL);
+        resetCompiledScripts();
+    }
+
+    @Override
+    public void preloadClasses(Collection<String> classNames) {
+        childFirstLoader.preload(classNames);
+    }
+
+    /**
+     * Sets the base class of the scripts, which must extend {@link Script} and be available from the class path or the
+     * plugin realm. If a prelude is used, it extends this class, so the base class should be set before the prelude.
+     *
+     * @param scriptBaseClass The fully qualified name of the base class, may be <code>null</code> to use
+     *            {@link Script}.
+     * @see VerificationScript
+     */
+    void setScriptBaseClass(String scriptBaseClass) {
+        this.scriptBaseClass = scriptBaseClass;
+        resetCompiledScripts();
+    }
+
+    /**
+     * Sets the number of compiled scripts to keep.
+     *
+     * @param maxCompiledScripts The number of compiled scripts, <code>0</code> to compile each evaluation anew.
+     */
+    void setMaxCompiledScripts(int maxCompiledScripts) {
+        scriptsLock.lock();
+        try {
+            this.maxCompiledScripts = maxCompiledScripts;
+            evictCompiledScripts();
+        } finally {
+            scriptsLock.unlock();
+        }
+    }
+
+    private CompilerConfiguration newConfiguration() {
+        CompilerConfiguration configuration = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
+        if (scriptBaseClass != null) {
+            configuration.setScriptBaseClass(scriptBaseClass);
+        }
+        return configuration;
+    }
+
+    /**
+     * Sets the limits after which the loader compiling the scripts is dropped together with all compiled scripts, so
+     * that everything it generated can be unloaded. The loader holding the class path is kept.
+     *
+     * @param maxEvaluations The number of evaluations per loader, <code>0</code> for no limit.
+     * @param maxClassBytes The number of generated class bytes per loader, <code>0</code> for no limit.
+     */
+    void setLoaderLimits(int maxEvaluations, long maxClassBytes) {
+        scriptsLock.lock();
+        try {
+            this.maxEvaluationsPerLoader = maxEvaluations;
+            this.maxClassBytesPerLoader = maxClassBytes;
+        } finally {
+            scriptsLock.unlock();
+        }
+    }
+
+    ClassGenerationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The prelude is compiled once. If it is a script, it becomes the base class of all scripts, so its methods and
+     * <code>@Field</code> variables can be used directly. Classes declared by the prelude can be used in any case.
+     */
+    @Override
+    public void setPrelude(String script) throws ScriptEvaluationException {
+        Prelude previous = prelude;
+        if (script == null) {
+            prelude = null;
+        } else {
+            GroovyClassLoader loader = new GroovyClassLoader(childFirstLoader, newConfiguration());
+            ClassLoader curentClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(childFirstLoader);
+                Class<?> type = loader.parseClass(script, "ScriptPrelude.groovy");
+                prelude = new Prelude(loader, Script.class.isAssignableFrom(type) ? type.getName() : null);
+            } catch (Throwable e) {
+                closeQuietly(loader);
+                throw new ScriptEvaluationException(e);
+            } finally {
+                Thread.currentThread().setContextClassLoader(curentClassLoader);
+            }
+        }
+        resetCompiledScripts();
+        if (previous != null) {
+            closeQuietly(previous.loader);
+        }
+    }
+
+    private static void closeQuietly(GroovyClassLoader loader) {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            // ignore, the loader only holds compiled classes
+        }
     }
 
     private URL toUrl(String path) {
@@ -63,37 +230,271 @@ class GroovyScriptInterpreter implements ScriptInterpreter {
      * {@inheritDoc}
      */
     @Override
-    public Object evaluateScript(String script, Map<String, ?> globalVariables, PrintStream scriptOutput)
+    public Object evaluateScript(
+            String script,
+            Map<String, ?> globalVariables,
+            PrintStream scriptOutput,
+            EvaluationOptions options,
+            EvaluationTimings timings)
             throws ScriptEvaluationException {
-        PrintStream origOut = System.out;
-        PrintStream origErr = System.err;
-
         ClassLoader curentClassLoader = Thread.currentThread().getContextClassLoader();
-        try {
-
-            if (scriptOutput != null) {
-                System.setErr(scriptOutput);
-                System.setOut(scriptOutput);
-            }
-
-            GroovyShell interpreter = new GroovyShell(
-                    childFirstLoader,
-                    new Binding(globalVariables),
-                    new CompilerConfiguration(CompilerConfiguration.DEFAULT));
+        try (SystemStreams.Redirection ignored = SystemStreams.redirect(scriptOutput)) {
+            long start = System.nanoTime();
+            Class<?> scriptClass = compile(script, options.getScriptName());
+            long compiled = System.nanoTime();
+            timings.compiled(compiled - start);
 
             Thread.currentThread().setContextClassLoader(childFirstLoader);
-            return interpreter.evaluate(script);
+            try {
+                return InvokerHelper.createScript(scriptClass, new Binding(globalVariables))
+                        .run();
+            } finally {
+                timings.ran(System.nanoTime() - compiled);
+            }
         } catch (Throwable e) {
             throw new ScriptEvaluationException(e);
         } finally {
             Thread.currentThread().setContextClassLoader(curentClassLoader);
-            System.setErr(origErr);
-            System.setOut(origOut);
+        }
+    }
+
+    /**
+     * Gets the compiled class of the specified script, compiling it if it is not cached.
+     *
+     * @param script The script contents, must not be <code>null</code>.
+     * @param scriptName The name of the script for diagnostics, may be <code>null</code>.
+     * @return The script class, never <code>null</code>.
+     */
+    private Class<?> compile(String script, String scriptName) {
+        ScriptClassLoader loader;
+        scriptsLock.lock();
+        try {
+            if (scriptLoader != null && scriptLoader.isExhausted(maxEvaluationsPerLoader, maxClassBytesPerLoader)) {
+                dropCompiledScripts();
+                statistics.loaderRecycled();
+            }
+            if (scriptLoader == null) {
+                scriptLoader = newScriptLoader();
+            }
+            scriptLoader.evaluations++;
+
+            CompiledScript compiled = compiledScripts.get(script);
+            if (compiled != null) {
+                return compiled.scriptClass;
+            }
+            loader = scriptLoader;
+        } finally {
+            scriptsLock.unlock();
+        }
+
+        ScriptEvents.Event event = ScriptEvents.COMPILED.begin();
+        CompiledScript compiled = loader.compile(new GroovyCodeSource(
+                script, "Script" + SCRIPT_COUNTER.incrementAndGet() + ".groovy", GroovyShell.DEFAULT_CODE_BASE));
+        event.commit(scriptName, "groovy", (long) script.length(), compiled.classBytes);
+
+        if (!compiled.isReusable()) {
+            return compiled.scriptClass;
+        }
+
+        scriptsLock.lock();
+        try {
+            if (loader == scriptLoader && maxCompiledScripts > 0) {
+                CompiledScript existing = compiledScripts.putIfAbsent(script, compiled);
+                if (existing != null) {
+                    // compiled concurrently by another evaluation
+                    compiled.unload();
+                    return existing.scriptClass;
+                }
+                evictCompiledScripts();
+            }
+        } finally {
+            scriptsLock.unlock();
+        }
+        return compiled.scriptClass;
+    }
+
+    private ScriptClassLoader newScriptLoader() {
+        CompilerConfiguration configuration = newConfiguration();
+        ClassLoader parent = childFirstLoader;
+        Prelude current = prelude;
+        if (current != null) {
+            parent = current.loader;
+            if (current.baseClassName != null) {
+                configuration.setScriptBaseClass(current.baseClassName);
+            }
+        }
+        statistics.loaderCreated();
+        return new ScriptClassLoader(parent, configuration, statistics);
+    }
+
+    private void evictCompiledScripts() {
+        while (compiledScripts.size() > maxCompiledScripts) {
+            Map.Entry<String, CompiledScript> eldest =
+                    compiledScripts.entrySet().iterator().next();
+            compiledScripts.remove(eldest.getKey());
+            eldest.getValue().unload();
+        }
+    }
+
+    /**
+     * Drops all compiled scripts and the loader which compiled them, e.g. because the class path or the compiler
+     * configuration changed.
+     */
+    private void resetCompiledScripts() {
+        scriptsLock.lock();
+        try {
+            dropCompiledScripts();
+        } finally {
+            scriptsLock.unlock();
+        }
+    }
+
+    private void dropCompiledScripts() {
+        compiledScripts.values().forEach(CompiledScript::unload);
+        compiledScripts.clear();
+        if (scriptLoader != null) {
+            closeQuietly(scriptLoader);
+            scriptLoader = null;
         }
     }
 
     @Override
     public void close() throws IOException {
+        resetCompiledScripts();
+        Prelude current = prelude;
+        if (current != null) {
+            closeQuietly(current.loader);
+        }
         childFirstLoader.close();
     }
+
+    private static final class Prelude {
+
+        private final GroovyClassLoader loader;
+
+        /**
+         * The name of the compiled prelude script class or <code>null</code> if the prelude only declares classes.
+         */
+        private final String baseClassName;
+
+        Prelude(GroovyClassLoader loader, String baseClassName) {
+            this.loader = loader;
+            this.baseClassName = baseClassName;
+        }
+    }
+
+    /**
+     * The classes of a compiled script.
+     */
+    private static final class CompiledScript {
+
+        private Class<?> scriptClass;
+
+        /**
+         * All classes of the compilation, like closures and classes declared by the script.
+         */
+        private final List<Class<?>> classes = new ArrayList<>();
+
+        /**
+         * The size of the bytecode generated by the compilation.
+         */
+        private long classBytes;
+
+        /**
+         * Tells whether the compiled classes can be reused by other evaluations. This is the case unless the script
+         * declares classes or static fields, whose static state would be shared by all evaluations of the script.
+         * Closures and the fields generated by the compiler do not hold script state.
+         *
+         * @return <code>true</code> if the compilation can be cached, <code>false</code> otherwise.
+         */
+        boolean isReusable() {
+            for (Class<?> type : classes) {
+                if (type != scriptClass && !Closure.class.isAssignableFrom(type)) {
+                    return false;
+                }
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())
+                            && !field.isSynthetic()
+                            && field.getName().indexOf('$') < 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes the meta classes of the compiled classes, so they can be unloaded once no longer in use.
+         */
+        void unload() {
+            for (Class<?> type : classes) {
+                GroovySystem.getMetaClassRegistry().removeMetaClass(type);
+            }
+        }
+    }
+
+    /**
+     * A class loader which does not keep the classes it compiled, so that they can be unloaded independently.
+     */
+    private static final class ScriptClassLoader extends GroovyClassLoader {
+
+        private final ThreadLocal<CompiledScript> compiling = new ThreadLocal<>();
+
+        private final ClassGenerationStatistics statistics;
+
+        private final AtomicLong classBytes = new AtomicLong();
+
+        /**
+         * The number of evaluations using this loader, guarded by the scripts lock of the interpreter.
+         */
+        private int evaluations;
+
+        ScriptClassLoader(
+                ClassLoader parent, CompilerConfiguration configuration, ClassGenerationStatistics statistics) {
+            super(parent, configuration);
+            this.statistics = statistics;
+        }
+
+        boolean isExhausted(int maxEvaluations, long maxClassBytes) {
+            return (maxEvaluations > 0 && evaluations >= maxEvaluations)
+                    || (maxClassBytes > 0 && classBytes.get() >= maxClassBytes);
+        }
+
+        @Override
+        protected ClassCollector createCollector(CompilationUnit unit, SourceUnit su) {
+            return new ClassCollector(new InnerLoader(this), unit, su) {
+                @SuppressWarnings("rawtypes")
+                @Override
+                protected Class createClass(byte[] code, ClassNode classNode) {
+                    classBytes.addAndGet(code.length);
+                    statistics.classDefined(code.length);
+                    CompiledScript compiled = compiling.get();
+                    if (compiled != null) {
+                        compiled.classBytes += code.length;
+                    }
+                    return super.createClass(code, classNode);
+                }
+            };
+        }
+
+        CompiledScript compile(GroovyCodeSource codeSource) {
+            CompiledScript compiled = new CompiledScript();
+            compiling.set(compiled);
+            try {
+                compiled.scriptClass = parseClass(codeSource, false);
+                return compiled;
+            } finally {
+                compiling.remove();
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        protected void setClassCacheEntry(Class cls) {
+            CompiledScript compiled = compiling.get();
+            if (compiled != null && cls.getClassLoader() instanceof InnerLoader) {
+                compiled.classes.add(cls);
+            }
+        }
+    }
 }
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+/**
+ * A reference to an interpreter which an evaluation holds while it runs, so that the interpreter is not closed under
+ * the running script, e.g. because the class path or the prelude of the runner changed meanwhile.
+ */
+interface InterpreterHandle extends AutoCloseable {
+
+    /**
+     * Gets the referenced interpreter.
+     *
+     * @return The interpreter, never <code>null</code>.
+     */
+    ScriptInterpreter getInterpreter();
+
+    /**
+     * Releases the reference. The interpreter must not be used afterwards.
+     */
+    @Override
+    void close();
+}
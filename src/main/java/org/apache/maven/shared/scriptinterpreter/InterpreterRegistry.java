@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process-wide registry of configured script interpreters which are shared by all {@link ScriptRunner}s using the
+ * same configuration. Runners lease interpreters and return them when closed; interpreters nobody leases are kept warm
+ * for a while, so consecutive builds in a long-lived process (like a Maven daemon) reuse the loaded classes, the
+ * compiled scripts and the JIT-compiled code of the previous builds.
+ *
+ * <p>Idle interpreters are closed after {@link #DEFAULT_IDLE_TIMEOUT} or when more than {@link #DEFAULT_MAX_IDLE}
+ * interpreters are idle, whichever comes first. Expired interpreters are swept by a daemon thread, so they are closed
+ * even if no interpreter is leased or returned afterwards. Until then, an idle interpreter keeps the parent of its
+ * class loaders (like a plugin realm) reachable, so a realm is retained up to the idle timeout after its last runner
+ * closed.
+ */
+final class InterpreterRegistry {
+
+    static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    static final int DEFAULT_MAX_IDLE = 8;
+
+    private static final Logger LOG = LoggerFactory.getLogger(InterpreterRegistry.class);
+
+    private static final InterpreterRegistry SHARED = new InterpreterRegistry(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_IDLE);
+
+    private final long idleTimeout;
+
+    private final int maxIdle;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The registered interpreters in insertion order, guarded by {@link #lock}.
+     */
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * The scheduled sweep of expired idle interpreters or <code>null</code> if none is scheduled, guarded by
+     * {@link #lock}.
+     */
+    private ScheduledFuture<?> sweep;
+
+    InterpreterRegistry(long idleTimeout, int maxIdle) {
+        this.idleTimeout = idleTimeout;
+        this.maxIdle = maxIdle;
+    }
+
+    static InterpreterRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Leases the interpreter for the specified configuration, creating it if there is none yet.
+     *
+     * @param key The configuration of the interpreter, must not be <code>null</code>.
+     * @param factory The factory to create a new interpreter with the given configuration, must not be
+     *            <code>null</code>.
+     * @return The lease, never <code>null</code>.
+     * @throws ScriptEvaluationException If a new interpreter could not be configured, e.g. because of its prelude.
+     */
+    Lease lease(Key key, Factory factory) throws ScriptEvaluationException {
+        Entry entry;
+        List<Entry> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            entry = entries.computeIfAbsent(key, Entry::new);
+            entry.references++;
+            evictIdle(evicted);
+        } finally {
+            lock.unlock();
+        }
+        evicted.forEach(Entry::close);
+
+        try {
+            entry.initialize(factory);
+        } catch (ScriptEvaluationException | RuntimeException e) {
+            lock.lock();
+            try {
+                entry.references--;
+                if (entry.references == 0) {
+                    entries.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        return new Lease(entry);
+    }
+
+    /**
+     * Gets the number of interpreters in the registry.
+     *
+     * @return The number of leased and idle interpreters.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Entry entry) {
+        List<Entry> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            entry.references--;
+            entry.idleSince = System.currentTimeMillis();
+            evictIdle(evicted);
+        } finally {
+            lock.unlock();
+        }
+        evicted.forEach(Entry::close);
+    }
+
+    /**
+     * Closes the idle interpreters which expired since the last lease or release.
+     */
+    private void sweep() {
+        List<Entry> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            sweep = null;
+            evictIdle(evicted);
+        } finally {
+            lock.unlock();
+        }
+        evicted.forEach(Entry::close);
+    }
+
+    private void evictIdle(List<Entry> evicted) {
+        List<Entry> idle = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.references == 0) {
+                idle.add(entry);
+            }
+        }
+
+        // evict from the least recently released on
+        idle.sort((a, b) -> Long.compare(a.idleSince, b.idleSince));
+        long now = System.currentTimeMillis();
+        int remaining = idle.size();
+        long oldestIdleSince = Long.MAX_VALUE;
+        for (Entry entry : idle) {
+            if (remaining > maxIdle || now - entry.idleSince >= idleTimeout) {
+                entries.remove(entry.key);
+                evicted.add(entry);
+                remaining--;
+            } else {
+                oldestIdleSince = Math.min(oldestIdleSince, entry.idleSince);
+            }
+        }
+
+        if (oldestIdleSince != Long.MAX_VALUE && sweep == null) {
+            sweep = Sweeper.EXECUTOR.schedule(this::sweep, oldestIdleSince + idleTimeout - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Holds the daemon thread sweeping the expired interpreters of all registries, started on first use.
+     */
+    private static final class Sweeper {
+
+        static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "script-interpreter-sweeper");
+            thread.setDaemon(true);
+            // do not pin the class loader of the plugin which happened to start the thread
+            thread.setContextClassLoader(null);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a new interpreter for a configuration.
+     */
+    @FunctionalInterface
+    interface Factory {
+
+        ScriptInterpreter create() throws ScriptEvaluationException;
+    }
+
+    /**
+     * A lease of a shared interpreter, to be closed when the interpreter is no longer used.
+     */
+    final class Lease implements InterpreterHandle {
+
+        private final Entry entry;
+
+        private boolean closed;
+
+        Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public ScriptInterpreter getInterpreter() {
+            return entry.interpreter;
+        }
+
+        /**
+         * Leases the interpreter of this lease once more, e.g. for the duration of an evaluation. The interpreter
+         * stays open until all its leases are closed.
+         *
+         * @return The new lease, never <code>null</code>.
+         */
+        Lease retain() {
+            lock.lock();
+            try {
+                entry.references++;
+            } finally {
+                lock.unlock();
+            }
+            return new Lease(entry);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Key key;
+
+        private final ReentrantLock initializationLock = new ReentrantLock();
+
+        private volatile ScriptInterpreter interpreter;
+
+        /**
+         * The number of leases, guarded by the lock of the registry.
+         */
+        private int references;
+
+        /**
+         * The time the last lease was closed, guarded by the lock of the registry.
+         */
+        private long idleSince;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+
+        void initialize(Factory factory) throws ScriptEvaluationException {
+            if (interpreter == null) {
+                initializationLock.lock();
+                try {
+                    if (interpreter == null) {
+                        interpreter = factory.create();
+                    }
+                } finally {
+                    initializationLock.unlock();
+                }
+            }
+        }
+
+        void close() {
+            ScriptInterpreter current = interpreter;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    LOG.debug("Cannot close idle script interpreter {}: {}", key, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * The configuration of a shared interpreter.
+     */
+    static final class Key {
+
+        private final String interpreterId;
+
+        /**
+         * The parent of the script class loaders, compared by identity.
+         */
+        private final ClassLoader parent;
+
+        private final List<String> classPath;
+
+        private final String prelude;
+
+        private final String scriptBaseClass;
+
+        private final int maxEvaluationsPerLoader;
+
+        private final long maxClassBytesPerLoader;
+
+        Key(
+                String interpreterId,
+                ClassLoader parent,
+                List<String> classPath,
+                String prelude,
+                String scriptBaseClass,
+                int maxEvaluationsPerLoader,
+                long maxClassBytesPerLoader) {
+            this.interpreterId = interpreterId;
+            this.parent = parent;
+            this.classPath = Collections.unmodifiableList(new ArrayList<>(classPath));
+            this.prelude = prelude;
+            this.scriptBaseClass = scriptBaseClass;
+            this.maxEvaluationsPerLoader = maxEvaluationsPerLoader;
+            this.maxClassBytesPerLoader = maxClassBytesPerLoader;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return interpreterId.equals(other.interpreterId)
+                    && parent == other.parent
+                    && classPath.equals(other.classPath)
+                    && Objects.equals(prelude, other.prelude)
+                    && Objects.equals(scriptBaseClass, other.scriptBaseClass)
+                    && maxEvaluationsPerLoader == other.maxEvaluationsPerLoader
+                    && maxClassBytesPerLoader == other.maxClassBytesPerLoader;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    interpreterId,
+                    System.identityHashCode(parent),
+                    classPath,
+                    prelude,
+                    scriptBaseClass,
+                    maxEvaluationsPerLoader,
+                    maxClassBytesPerLoader);
+        }
+
+        @Override
+        public String toString() {
+            return interpreterId + classPath;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A version of an interpreter of a {@link ScriptRunner}. Replacing the class path of a runner creates new versions of
+ * its built-in interpreters and retires the previous ones; a retired version keeps serving the evaluations which
+ * already acquired it and closes its interpreter (and thus its class loader) once the last of them released it.
+ *
+ * <p>Acquiring and releasing a version is lock-free, as it happens for every script evaluation.
+ */
+final class InterpreterVersion implements InterpreterHandle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InterpreterVersion.class);
+
+    private final ScriptInterpreter interpreter;
+
+    /**
+     * The number of evaluations currently using this version.
+     */
+    private final AtomicInteger users = new AtomicInteger();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile boolean retired;
+
+    InterpreterVersion(ScriptInterpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    @Override
+    public ScriptInterpreter getInterpreter() {
+        return interpreter;
+    }
+
+    /**
+     * Acquires this version for an evaluation.
+     *
+     * @return <code>true</code> if the version was acquired and must be released by {@link #close()},
+     *         <code>false</code> if it is already retired and must not be used anymore.
+     */
+    boolean tryAcquire() {
+        users.incrementAndGet();
+        if (retired) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases this version after an evaluation, closing its interpreter if it is retired and no longer used.
+     */
+    @Override
+    public void close() {
+        if (users.decrementAndGet() == 0 && retired) {
+            closeInterpreter();
+        }
+    }
+
+    /**
+     * Retires this version, closing its interpreter as soon as no evaluation uses it anymore.
+     */
+    void retire() {
+        retired = true;
+        if (users.get() == 0) {
+            closeInterpreter();
+        }
+    }
+
+    boolean isInterpreterClosed() {
+        return closed.get();
+    }
+
+    private void closeInterpreter() {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                interpreter.close();
+            } catch (IOException e) {
+                LOG.warn("Cannot close retired script interpreter: {}", e.toString());
+            }
+        }
+    }
+}
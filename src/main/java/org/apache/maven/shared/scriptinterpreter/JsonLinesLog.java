@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A structured execution log with one compact JSON record per line, written alongside the text output of the
+ * {@link ExecutionLogger}s. Every record has the fields <code>ts</code> (milliseconds since the epoch),
+ * <code>event</code> and <code>script</code>, the events are
+ *
+ * <ul>
+ * <li><code>start</code> with <code>description</code> and <code>interpreter</code>,</li>
+ * <li><code>output</code> with <code>stream</code> (<code>out</code> or <code>err</code>) and <code>text</code> for
+ * each line a script writes (or the pending text when a script flushes its stream), for runs with an
+ * {@link ExecutionLogger} only,</li>
+ * <li><code>exception</code> with <code>type</code> and <code>message</code> if a script failed with an exception,</li>
+ * <li><code>finish</code> with <code>description</code>, <code>interpreter</code>, <code>successful</code>,
+ * <code>compileNanos</code>, <code>runNanos</code> and <code>outputBytes</code>.</li>
+ * </ul>
+ *
+ * <p>Records are encoded by hand into a single reused buffer and appended to the file in the order of the events. The
+ * log can be shared by concurrent runs.
+ *
+ * @see ScriptRunner#setJsonLinesLog(JsonLinesLog)
+ * @since 1.8
+ */
+public final class JsonLinesLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonLinesLog.class);
+
+    /**
+     * The number of pending bytes of a script stream which are recorded even without a line terminator.
+     */
+    static final int MAX_PENDING_OUTPUT = 8192;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The buffer to encode records in, guarded by {@link #lock}.
+     */
+    private final StringBuilder record = new StringBuilder(256);
+
+    /**
+     * The log file writer, guarded by {@link #lock}.
+     */
+    private final Writer writer;
+
+    /**
+     * Whether writing the log failed before, guarded by {@link #lock}.
+     */
+    private boolean writeFailed;
+
+    /**
+     * Creates a new log writing to the specified file, replacing it if it exists.
+     *
+     * @param file The file to write the records to, must not be <code>null</code>.
+     * @throws IOException If the file could not be created.
+     */
+    public JsonLinesLog(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a new log writing to the specified stream.
+     *
+     * @param out The stream to write the UTF-8 encoded records to, must not be <code>null</code>.
+     */
+    public JsonLinesLog(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    void started(String description, File scriptFile, String interpreter) {
+        lock.lock();
+        try {
+            begin("start", scriptFile);
+            field("description", description);
+            field("interpreter", interpreter);
+            end(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void output(File scriptFile, boolean err, String text) {
+        lock.lock();
+        try {
+            begin("output", scriptFile);
+            field("stream", err ? "err" : "out");
+            field("text", text);
+            end(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void exception(File scriptFile, Throwable failure) {
+        lock.lock();
+        try {
+            begin("exception", scriptFile);
+            field("type", failure.getClass().getName());
+            field("message", failure.getMessage());
+            end(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void finished(
+            String description,
+            File scriptFile,
+            String interpreter,
+            boolean successful,
+            long compileNanos,
+            long runNanos,
+            long outputBytes) {
+        lock.lock();
+        try {
+            begin("finish", scriptFile);
+            field("description", description);
+            field("interpreter", interpreter);
+            record.append(",\"successful\":").append(successful);
+            record.append(",\"compileNanos\":").append(compileNanos);
+            record.append(",\"runNanos\":").append(runNanos);
+            record.append(",\"outputBytes\":").append(outputBytes);
+            end(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the streams which record what a script writes to its standard output and error streams and pass it on
+     * to the specified stream.
+     *
+     * @param scriptFile The script writing to the streams, must not be <code>null</code>.
+     * @param out The stream to pass the output on to, must not be <code>null</code>.
+     * @return The capture of the script output, never <code>null</code>.
+     */
+    Capture capture(File scriptFile, PrintStream out) {
+        return new Capture(
+                new CaptureOutputStream(scriptFile, out, false), new CaptureOutputStream(scriptFile, out, true));
+    }
+
+    private void begin(String event, File scriptFile) {
+        record.setLength(0);
+        record.append("{\"ts\":").append(System.currentTimeMillis());
+        field("event", event);
+        field("script", scriptFile.getPath());
+    }
+
+    private void field(String name, String value) {
+        record.append(",\"").append(name).append("\":");
+        SlowScriptReport.appendString(record, value);
+    }
+
+    private void end(boolean flush) {
+        record.append("}\n");
+        try {
+            writer.append(record);
+            if (flush) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // the log is auxiliary, a failure to write it must not fail the build
+            if (!writeFailed) {
+                writeFailed = true;
+                LOG.warn("Failed to write the JSON lines log, some records are missing: {}", e.toString());
+            }
+        }
+        if (record.length() > 64 * 1024) {
+            record.setLength(0);
+            record.trimToSize();
+        }
+    }
+
+    /**
+     * Flushes and closes the log.
+     *
+     * @throws IOException If the log could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            writer.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The output captured from a script. Closing it ends the redirection of the system streams and records the text
+     * which is still pending.
+     */
+    final class Capture implements SystemStreams.Redirection {
+
+        private final CaptureOutputStream outStream;
+
+        private final CaptureOutputStream errStream;
+
+        private final PrintStream out;
+
+        private final PrintStream err;
+
+        private SystemStreams.Redirection redirection;
+
+        Capture(CaptureOutputStream outStream, CaptureOutputStream errStream) {
+            this.outStream = outStream;
+            this.errStream = errStream;
+            this.out = new PrintStream(outStream, false);
+            this.err = new PrintStream(errStream, false);
+        }
+
+        /**
+         * Gets the stream to pass to the script as its output.
+         *
+         * @return The stream for the standard output of the script, never <code>null</code>.
+         */
+        PrintStream getOut() {
+            return out;
+        }
+
+        /**
+         * Redirects the system streams of the current thread to the capture.
+         *
+         * @return This capture, to close once the script finished, never <code>null</code>.
+         */
+        Capture redirect() {
+            redirection = SystemStreams.redirect(out, err);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (redirection != null) {
+                redirection.close();
+            }
+            out.flush();
+            err.flush();
+            outStream.finish();
+            errStream.finish();
+        }
+    }
+
+    /**
+     * Records the lines written by a script and passes the bytes on. The bytes are decoded with the charset the
+     * {@link PrintStream}s of the script encode with, by a stateful decoder so characters split across writes are
+     * kept intact.
+     */
+    private final class CaptureOutputStream extends OutputStream {
+
+        private final File scriptFile;
+
+        private final PrintStream out;
+
+        private final boolean err;
+
+        private final CharsetDecoder decoder = Charset.defaultCharset()
+                .newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * The bytes not yet recorded, guarded by the {@link PrintStream} writing to this stream.
+         */
+        private final ByteBuffer pending = ByteBuffer.allocate(MAX_PENDING_OUTPUT);
+
+        private final CharBuffer chars;
+
+        CaptureOutputStream(File scriptFile, PrintStream out, boolean err) {
+            this.scriptFile = scriptFile;
+            this.out = out;
+            this.err = err;
+            this.chars = CharBuffer.allocate((int) Math.ceil(MAX_PENDING_OUTPUT * decoder.maxCharsPerByte()) + 1);
+        }
+
+        @Override
+        public void write(int b) {
+            out.write(b);
+            pending.put((byte) b);
+            if ((byte) b == '\n' || !pending.hasRemaining()) {
+                record(false);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            out.write(b, off, len);
+            int end = off + len;
+            while (off < end) {
+                int chunk = Math.min(end - off, pending.remaining());
+                int newline = -1;
+                for (int i = off; i < off + chunk; i++) {
+                    if (b[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    chunk = newline + 1 - off;
+                }
+                pending.put(b, off, chunk);
+                off += chunk;
+                if (newline >= 0 || !pending.hasRemaining()) {
+                    record(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+            record(false);
+        }
+
+        void finish() {
+            record(true);
+        }
+
+        private void record(boolean endOfInput) {
+            pending.flip();
+            decoder.decode(pending, chars, endOfInput);
+            if (endOfInput) {
+                decoder.flush(chars);
+                decoder.reset();
+            }
+            // an incomplete character at the end stays pending for the next write
+            pending.compact();
+            chars.flip();
+            if (chars.hasRemaining()) {
+                output(scriptFile, err, chars.toString());
+            }
+            chars.clear();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe context for hook scripts whose entries can be computed on first access. Expensive values like parsed
+ * POMs or dependency trees can be registered with {@link #putLazy(String, Supplier)} up front and are only computed
+ * if a script reads them, at most once even if several scripts read them concurrently. The context can be shared by
+ * concurrent runs and is passed to the scripts as is.
+ *
+ * <p>Reading an entry (with {@link #get(Object)}, through the entry set or the values) computes it if needed, while
+ * {@link #containsKey(Object)}, {@link #size()} and the key set do not. Replacing or removing an entry does not compute
+ * it either: {@link #put(String, Object)}, {@link #remove(Object)} and {@link #replace(String, Object)} return
+ * <code>null</code> for a lazy value which was not computed yet. A failed computation is repeated on the next access;
+ * a supplier reading its own entry fails with an {@link IllegalStateException}. Unlike {@link ConcurrentHashMap}, the
+ * context permits <code>null</code> values, but not <code>null</code> keys.
+ *
+ * <p>The context is not serializable, so it is not available to scripts evaluated in worker JVMs.
+ *
+ * @since 1.8
+ */
+public class LazyContext extends AbstractMap<String, Object> implements ConcurrentMap<String, Object> {
+
+    /**
+     * Stands for <code>null</code> values, which the backing map does not permit.
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * The entries, lazy ones as {@link Lazy} holders.
+     */
+    private final ConcurrentHashMap<String, Object> entries;
+
+    /**
+     * Creates an empty context.
+     */
+    public LazyContext() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a context with the given entries.
+     *
+     * @param entries The initial entries, must not be <code>null</code>.
+     */
+    public LazyContext(Map<String, ?> entries) {
+        this();
+        putAll(entries);
+    }
+
+    private LazyContext(ConcurrentHashMap<String, Object> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Adds an entry whose value is computed when it is first read. The supplier is called by the first reader, other
+     * concurrent readers wait for its result.
+     *
+     * @param key The key of the entry, must not be <code>null</code>.
+     * @param supplier The supplier of the value, must not be <code>null</code>. It may return <code>null</code>.
+     */
+    public void putLazy(String key, Supplier<?> supplier) {
+        entries.put(key, new Lazy(key, Objects.requireNonNull(supplier, "supplier")));
+    }
+
+    /**
+     * Tells whether the value of the specified entry is available without computing it.
+     *
+     * @param key The key of the entry, may be <code>null</code>.
+     * @return <code>true</code> if the entry exists and is not lazy or already computed, <code>false</code> otherwise.
+     */
+    public boolean isComputed(Object key) {
+        Object value = key != null ? entries.get(key) : null;
+        return value != null && (!(value instanceof Lazy) || ((Lazy) value).done);
+    }
+
+    /**
+     * Creates a snapshot of this context. Later changes to either context are not visible in the other, but both share
+     * the lazy entries which are not replaced, so each value is still computed only once.
+     *
+     * @return The snapshot, never <code>null</code>.
+     */
+    public LazyContext snapshot() {
+        return new LazyContext(new ConcurrentHashMap<>(entries));
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && entries.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key != null ? unwrap(entries.get(key)) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return peek(entries.put(key, wrap(value)));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return key != null ? peek(entries.remove(key)) : null;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return entries.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator =
+                        entries.entrySet().iterator();
+                return new Iterator<Map.Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        Map.Entry<String, Object> entry = iterator.next();
+                        return new SimpleEntry<String, Object>(entry.getKey(), unwrap(entry.getValue())) {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public Object setValue(Object value) {
+                                put(getKey(), value);
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        return unwrap(entries.putIfAbsent(key, wrap(value)));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null) {
+            return false;
+        }
+        Object current = entries.get(key);
+        return current != null && Objects.equals(unwrap(current), value) && entries.remove(key, current);
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        Object current = entries.get(key);
+        return current != null
+                && Objects.equals(unwrap(current), oldValue)
+                && entries.replace(key, current, wrap(newValue));
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        return peek(entries.replace(key, wrap(value)));
+    }
+
+    private static Object wrap(Object value) {
+        return value != null ? value : NULL;
+    }
+
+    /**
+     * Unwraps a replaced or removed value without computing it.
+     */
+    private static Object peek(Object value) {
+        if (value instanceof Lazy) {
+            Lazy lazy = (Lazy) value;
+            return lazy.done ? lazy.value : null;
+        }
+        return value != NULL ? value : null;
+    }
+
+    private static Object unwrap(Object value) {
+        if (value instanceof Lazy) {
+            return ((Lazy) value).get();
+        }
+        return value != NULL ? value : null;
+    }
+
+    /**
+     * A value computed on first access.
+     */
+    private static final class Lazy {
+
+        private final String key;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Supplier<?> supplier;
+
+        /**
+         * The computed value, written before {@link #done} is set.
+         */
+        private Object value;
+
+        private volatile boolean done;
+
+        Lazy(String key, Supplier<?> supplier) {
+            this.key = key;
+            this.supplier = supplier;
+        }
+
+        Object get() {
+            if (!done) {
+                if (lock.isHeldByCurrentThread()) {
+                    // the lock is reentrant, so the supplier would recurse until the stack overflows
+                    throw new IllegalStateException("Context entry " + key + " depends on itself");
+                }
+                lock.lock();
+                try {
+                    if (!done) {
+                        value = supplier.get();
+                        supplier = null;
+                        done = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An inverted index of the tokens printed to many log files, to find the logs containing an error message without
+ * scanning them all. The index is built incrementally from the output flushed to {@link FileLogger}s, see
+ * {@link #mirror(File, FileLoggerMirrorHandler)}, and stored in a single file next to the logs.
+ *
+ * <p>Tokens are the runs of letters, digits, <code>_</code> and <code>$</code> between 2 and 64 characters, compared
+ * case-insensitively. So <code>java.lang.NoSuchMethodError: foo()</code> yields the tokens <code>java</code>,
+ * <code>lang</code>, <code>nosuchmethoderror</code> and <code>foo</code>. A query matches the logs containing all of
+ * its tokens, in any order.
+ *
+ * @since 1.8
+ */
+public final class LogIndex {
+
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final File file;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The paths of the indexed logs by id, guarded by {@link #lock}.
+     */
+    private final List<String> logs = new ArrayList<>();
+
+    /**
+     * The ids of the indexed logs by path, guarded by {@link #lock}.
+     */
+    private final Map<String, Integer> logIds = new HashMap<>();
+
+    /**
+     * The ids of the logs containing each token, guarded by {@link #lock}.
+     */
+    private final Map<String, BitSet> postings = new HashMap<>();
+
+    /**
+     * The tokens of each log by id, so that a log can be dropped from the postings in proportion to its own size,
+     * guarded by {@link #lock}.
+     */
+    private final List<Set<String>> logTokens = new ArrayList<>();
+
+    private boolean modified;
+
+    private LogIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index from the specified file. A missing file yields an empty index.
+     *
+     * @param file The file to load the index from and to save it to, must not be <code>null</code>.
+     * @return The index, never <code>null</code>.
+     * @throws IOException If the file could not be read.
+     */
+    public static LogIndex load(File file) throws IOException {
+        LogIndex index = new LogIndex(file);
+        if (!file.isFile()) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("L\t")) {
+                    index.logId(line.substring(2));
+                } else if (line.startsWith("T\t")) {
+                    int separator = line.indexOf('\t', 2);
+                    if (separator < 0) {
+                        continue;
+                    }
+                    String token = line.substring(2, separator);
+                    BitSet ids = new BitSet();
+                    for (String id : line.substring(separator + 1).split(" ")) {
+                        try {
+                            int logId = Integer.parseInt(id);
+                            index.logTokens.get(logId).add(token);
+                            ids.set(logId);
+                        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                            // skip, the log will be indexed again when it is written
+                        }
+                    }
+                    index.postings.put(token, ids);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the file the index is stored in.
+     *
+     * @return The file, never <code>null</code>.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Creates a mirror handler which indexes the output flushed to the specified log, to be passed to
+     * {@link FileLogger#FileLogger(File, FileLoggerMirrorHandler)}. Since a file logger replaces its file, the tokens
+     * previously indexed for the log are dropped, at a cost proportional to the number of these tokens.
+     *
+     * @param logFile The log file the output is written to, must not be <code>null</code>.
+     * @param delegate The handler to pass the output on to, may be <code>null</code>.
+     * @return The mirror handler, never <code>null</code>.
+     */
+    public FileLoggerMirrorHandler mirror(File logFile, FileLoggerMirrorHandler delegate) {
+        String path = logFile.getAbsolutePath();
+        int id;
+        lock.lock();
+        try {
+            Integer existing = logIds.get(path);
+            if (existing != null) {
+                id = existing;
+                Set<String> tokens = logTokens.get(id);
+                for (String token : tokens) {
+                    postings.get(token).clear(id);
+                }
+                tokens.clear();
+            } else {
+                id = logId(path);
+            }
+            modified = true;
+        } finally {
+            lock.unlock();
+        }
+        return message -> {
+            add(id, message);
+            if (delegate != null) {
+                delegate.consumeOutput(message);
+            }
+        };
+    }
+
+    /**
+     * Indexes the specified text as part of a log.
+     *
+     * @param logFile The log file containing the text, must not be <code>null</code>.
+     * @param text The text to index, must not be <code>null</code>.
+     */
+    public void add(File logFile, String text) {
+        int id;
+        lock.lock();
+        try {
+            id = logId(logFile.getAbsolutePath());
+        } finally {
+            lock.unlock();
+        }
+        add(id, text);
+    }
+
+    private void add(int id, String text) {
+        Set<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            Set<String> indexed = logTokens.get(id);
+            for (String token : tokens) {
+                BitSet ids = postings.get(token);
+                if (ids == null) {
+                    ids = new BitSet();
+                    postings.put(token, ids);
+                }
+                if (!ids.get(id)) {
+                    ids.set(id);
+                    indexed.add(token);
+                }
+            }
+            modified = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the logs containing all tokens of the specified query.
+     *
+     * @param query The text to search for like <code>NoSuchMethodError</code>, must not be <code>null</code>.
+     * @return The matching log files in the order they were first indexed, never <code>null</code>. A query without
+     *         tokens matches no log.
+     */
+    public List<File> search(String query) {
+        Set<String> tokens = tokenize(query);
+        List<File> result = new ArrayList<>();
+        if (tokens.isEmpty()) {
+            return result;
+        }
+        lock.lock();
+        try {
+            BitSet matches = null;
+            for (String token : tokens) {
+                BitSet ids = postings.get(token);
+                if (ids == null) {
+                    return result;
+                }
+                if (matches == null) {
+                    matches = (BitSet) ids.clone();
+                } else {
+                    matches.and(ids);
+                }
+            }
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                result.add(new File(logs.get(id)));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the index to its file if it changed since it was loaded or last saved. The file is replaced atomically
+     * where the file system supports it.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    public void save() throws IOException {
+        StringBuilder text = new StringBuilder();
+        lock.lock();
+        try {
+            if (!modified) {
+                return;
+            }
+            for (String log : logs) {
+                text.append("L\t").append(log).append('\n');
+            }
+            for (Map.Entry<String, BitSet> posting : postings.entrySet()) {
+                BitSet ids = posting.getValue();
+                if (ids.isEmpty()) {
+                    continue;
+                }
+                text.append("T\t").append(posting.getKey()).append('\t');
+                for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                    text.append(id).append(' ');
+                }
+                text.setCharAt(text.length() - 1, '\n');
+            }
+            modified = false;
+        } finally {
+            lock.unlock();
+        }
+
+        Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(text.toString());
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private int logId(String path) {
+        Integer id = logIds.get(path);
+        if (id == null) {
+            id = logs.size();
+            logs.add(path);
+            logIds.put(path, id);
+            logTokens.add(new HashSet<>());
+        }
+        return id;
+    }
+
+    /**
+     * Splits the specified text into its distinct tokens.
+     *
+     * @param text The text to split, must not be <code>null</code>.
+     * @return The lower-case tokens, never <code>null</code>.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && isTokenChar(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TOKEN_LENGTH && length <= MAX_TOKEN_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
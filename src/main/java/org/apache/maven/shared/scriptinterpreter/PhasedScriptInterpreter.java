@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * A script interpreter which compiles (or parses) scripts in a phase separate from running them and reports the
+ * duration of each phase.
+ */
+interface PhasedScriptInterpreter extends ScriptInterpreter {
+
+    /**
+     * Evaluates the specified script with the given options, reporting the durations of its phases.
+     *
+     * @param script The script contents to evaluate, must not be <code>null</code>.
+     * @param globalVariables The global variables to define for the script, may be <code>null</code> if not used.
+     * @param scriptOutput A print stream to redirect any output from the script to, may be <code>null</code>.
+     * @param options The options of the evaluation, must not be <code>null</code>.
+     * @param timings The timings to add the phase durations to, must not be <code>null</code>.
+     * @return The return value from the script, can be <code>null</code>
+     * @throws ScriptEvaluationException If the script evaluation produced an error.
+     */
+    Object evaluateScript(
+            String script,
+            Map<String, ?> globalVariables,
+            PrintStream scriptOutput,
+            EvaluationOptions options,
+            EvaluationTimings timings)
+            throws ScriptEvaluationException;
+
+    @Override
+    default Object evaluateScript(String script, Map<String, ?> globalVariables, PrintStream scriptOutput)
+            throws ScriptEvaluationException {
+        return evaluateScript(
+                script, globalVariables, scriptOutput, EvaluationOptions.DEFAULT, new EvaluationTimings());
+    }
+}
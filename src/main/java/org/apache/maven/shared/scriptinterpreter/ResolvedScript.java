@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+
+/**
+ * A hook script found by {@link ScriptRunner#resolveAll(java.util.Collection, String)} together with the interpreter
+ * to evaluate it.
+ *
+ * @since 1.8
+ */
+public final class ResolvedScript {
+
+    private final File scriptFile;
+
+    private final ScriptInterpreter interpreter;
+
+    ResolvedScript(File scriptFile, ScriptInterpreter interpreter) {
+        this.scriptFile = scriptFile;
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Gets the path to the script file.
+     *
+     * @return The path to the script file, never <code>null</code>.
+     */
+    public File getScriptFile() {
+        return scriptFile;
+    }
+
+    /**
+     * Gets the interpreter to evaluate the script with.
+     *
+     * @return The script interpreter, never <code>null</code>.
+     */
+    public ScriptInterpreter getInterpreter() {
+        return interpreter;
+    }
+
+    @Override
+    public String toString() {
+        return scriptFile.getPath();
+    }
+}
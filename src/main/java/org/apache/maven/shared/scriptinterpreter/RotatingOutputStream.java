@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An output stream which rotates the underlying file once it reaches a configured size.
+ *
+ * @see FileLoggerOutputFactory#rotating(long, int)
+ */
+class RotatingOutputStream extends OutputStream {
+
+    private final Path path;
+
+    private final long maxFileSize;
+
+    private final int maxBackups;
+
+    private OutputStream out;
+
+    private long size;
+
+    RotatingOutputStream(Path path, long maxFileSize, int maxBackups) throws IOException {
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxBackups = maxBackups;
+        // start over like a truncated file, stale rotated files would otherwise be shifted along with the new ones
+        for (int i = 1; i <= maxBackups; i++) {
+            Files.deleteIfExists(backup(i));
+        }
+        this.out = Files.newOutputStream(path);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        rotateIfNeeded(1);
+        out.write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        rotateIfNeeded(len);
+        out.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void rotateIfNeeded(int len) throws IOException {
+        if (size == 0 || size + len <= maxFileSize) {
+            return;
+        }
+
+        out.close();
+
+        if (maxBackups > 0) {
+            Files.deleteIfExists(backup(maxBackups));
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                Path backup = backup(i);
+                if (Files.exists(backup)) {
+                    Files.move(backup, backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, backup(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        out = Files.newOutputStream(path);
+        size = 0;
+    }
+
+    private Path backup(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+}
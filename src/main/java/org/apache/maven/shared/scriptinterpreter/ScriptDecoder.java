@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Decodes script files with a charset which is looked up once. Pure ASCII content of ASCII-compatible charsets (like
+ * UTF-8, ISO-8859-1 or the Windows code pages) is decoded by a plain copy. Optionally, the encoding is detected per
+ * file: a byte order mark selects (and is stripped as) UTF-8, UTF-16 or UTF-32, and content which is valid UTF-8 is
+ * decoded as UTF-8; other content is decoded with the configured charset.
+ */
+final class ScriptDecoder {
+
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    /**
+     * The charset or <code>null</code> if the configured encoding is not supported.
+     */
+    private final Charset charset;
+
+    /**
+     * The configured encoding, to report an unsupported encoding.
+     */
+    private final String encoding;
+
+    private final boolean asciiCompatible;
+
+    private final boolean detect;
+
+    private ScriptDecoder(Charset charset, String encoding, boolean detect) {
+        this.charset = charset;
+        this.encoding = encoding;
+        this.asciiCompatible = charset != null && isAsciiCompatible(charset);
+        this.detect = detect;
+    }
+
+    /**
+     * Creates a decoder for the specified encoding. An unsupported encoding is only reported when decoding.
+     *
+     * @param encoding The name of the encoding, may be <code>null</code> to use the platform's default encoding.
+     * @param detect Whether to detect the encoding per file.
+     * @return The decoder, never <code>null</code>.
+     */
+    static ScriptDecoder forEncoding(String encoding, boolean detect) {
+        Charset charset;
+        if (encoding == null) {
+            charset = Charset.defaultCharset();
+        } else {
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                charset = null;
+            }
+        }
+        return new ScriptDecoder(charset, encoding, detect);
+    }
+
+    /**
+     * Decodes the specified file contents.
+     *
+     * @param bytes The file contents, must not be <code>null</code>.
+     * @return The text, never <code>null</code>.
+     * @throws UnsupportedEncodingException If the configured encoding is not supported.
+     */
+    String decode(byte[] bytes) throws IOException {
+        if (charset == null) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        if (detect) {
+            int length = bytes.length;
+            if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+                return new String(bytes, 3, length - 3, StandardCharsets.UTF_8);
+            } else if (startsWith(bytes, 0x00, 0x00, 0xFE, 0xFF)) {
+                return new String(bytes, 4, length - 4, UTF_32BE);
+            } else if (startsWith(bytes, 0xFF, 0xFE, 0x00, 0x00)) {
+                return new String(bytes, 4, length - 4, UTF_32LE);
+            } else if (startsWith(bytes, 0xFE, 0xFF)) {
+                return new String(bytes, 2, length - 2, StandardCharsets.UTF_16BE);
+            } else if (startsWith(bytes, 0xFF, 0xFE)) {
+                return new String(bytes, 2, length - 2, StandardCharsets.UTF_16LE);
+            }
+        }
+
+        if (isAscii(bytes)) {
+            if (asciiCompatible) {
+                // the cheapest decoding, a plain copy on compact strings
+                return new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+        } else if (detect && !StandardCharsets.UTF_8.equals(charset)) {
+            String text = decodeUtf8(bytes);
+            if (text != null) {
+                return text;
+            }
+        }
+        return new String(bytes, charset);
+    }
+
+    private static boolean startsWith(byte[] bytes, int... prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the specified bytes if they are valid UTF-8, without throwing exceptions for invalid input.
+     *
+     * @return The text or <code>null</code> if the bytes are not valid UTF-8.
+     */
+    private static String decodeUtf8(byte[] bytes) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8
+                .newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CharBuffer out = CharBuffer.allocate(bytes.length);
+        if (decoder.decode(in, out, true).isError() || decoder.flush(out).isError()) {
+            return null;
+        }
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * Tells whether the specified charset decodes the ASCII range to the same characters, like ISO-8859-1 does.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Java Flight Recorder events emitted for script executions, so hook scripts show up in recordings with their
+ * path, interpreter, durations and byte counts next to GC and I/O activity. The events are defined at runtime through
+ * <code>jdk.jfr.EventFactory</code>, which is accessed reflectively because this library still runs on JVMs without
+ * Flight Recorder. If Flight Recorder is not available, all events are no-ops; if it is available but not recording
+ * an event type, beginning an event costs an allocation and a check.
+ *
+ * <p>All events are in the category <em>Maven / Script Interpreter</em> and named
+ * <code>org.apache.maven.shared.scriptinterpreter.Script*</code>.
+ */
+final class ScriptEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptEvents.class);
+
+    private static final String PREFIX = ScriptEvents.class.getPackage().getName() + '.';
+
+    private static final String[] CATEGORY = {"Maven", "Script Interpreter"};
+
+    private static final Jfr JFR = Jfr.load();
+
+    /**
+     * A hook script was looked up in a base directory: <code>script</code>, <code>found</code>.
+     */
+    static final EventType RESOLVED = new EventType(
+            "ScriptResolved",
+            "Script Resolved",
+            "A hook script was looked up in a project directory",
+            text("script", "Script"),
+            flag("found", "Found"));
+
+    /**
+     * A script was compiled (Groovy) or parsed (BeanShell): <code>script</code>, <code>interpreter</code>,
+     * <code>sourceLength</code>, <code>classBytes</code>.
+     */
+    static final EventType COMPILED = new EventType(
+            "ScriptCompiled",
+            "Script Compiled",
+            "A hook script was compiled or parsed",
+            text("script", "Script"),
+            text("interpreter", "Interpreter"),
+            count("sourceLength", "Source Length"),
+            bytes("classBytes", "Generated Class Bytes"));
+
+    /**
+     * A script was evaluated successfully: <code>script</code>, <code>description</code>, <code>interpreter</code>,
+     * <code>compileDuration</code>, <code>runDuration</code>, <code>outputBytes</code>.
+     */
+    static final EventType EVALUATED = new EventType(
+            "ScriptEvaluated",
+            "Script Evaluated",
+            "A hook script was evaluated successfully",
+            text("script", "Script"),
+            text("description", "Description"),
+            text("interpreter", "Interpreter"),
+            nanos("compileDuration", "Compile Duration"),
+            nanos("runDuration", "Run Duration"),
+            bytes("outputBytes", "Output"));
+
+    /**
+     * A script failed or did not return <code>true</code>: <code>script</code>, <code>description</code>,
+     * <code>interpreter</code>, <code>failure</code>, <code>message</code>, <code>outputBytes</code>.
+     */
+    static final EventType FAILED = new EventType(
+            "ScriptFailed",
+            "Script Failed",
+            "A hook script threw an exception or did not return true",
+            text("script", "Script"),
+            text("description", "Description"),
+            text("interpreter", "Interpreter"),
+            text("failure", "Failure"),
+            text("message", "Message"),
+            bytes("outputBytes", "Output"));
+
+    /**
+     * A {@link FileLogger} was flushed: <code>file</code>, <code>bytes</code> written since the previous flush.
+     */
+    static final EventType LOGGER_FLUSHED = new EventType(
+            "ScriptLoggerFlushed",
+            "Script Logger Flushed",
+            "The build log of hook scripts was flushed",
+            text("file", "File"),
+            bytes("bytes", "Bytes Written"));
+
+    private ScriptEvents() {
+        // no instances
+    }
+
+    /**
+     * Tells whether Flight Recorder events can be emitted at all in this JVM.
+     *
+     * @return <code>true</code> if Flight Recorder is available, <code>false</code> otherwise.
+     */
+    static boolean isAvailable() {
+        return JFR != null;
+    }
+
+    private static Object text(String name, String label) {
+        return field(String.class, name, label, null, null);
+    }
+
+    private static Object flag(String name, String label) {
+        return field(boolean.class, name, label, null, null);
+    }
+
+    private static Object count(String name, String label) {
+        return field(long.class, name, label, null, null);
+    }
+
+    private static Object bytes(String name, String label) {
+        return field(long.class, name, label, "jdk.jfr.DataAmount", "BYTES");
+    }
+
+    private static Object nanos(String name, String label) {
+        return field(long.class, name, label, "jdk.jfr.Timespan", "NANOSECONDS");
+    }
+
+    /**
+     * Creates the <code>jdk.jfr.ValueDescriptor</code> of an event field.
+     */
+    private static Object field(Class<?> type, String name, String label, String contentType, String contentValue) {
+        if (JFR == null) {
+            return null;
+        }
+        try {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(JFR.annotation("jdk.jfr.Label", label));
+            if (contentType != null) {
+                annotations.add(JFR.annotation(contentType, contentValue));
+            }
+            return JFR.valueDescriptor.newInstance(type, name, annotations);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Cannot define Flight Recorder event field {}: {}", name, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * A type of events, backed by a <code>jdk.jfr.EventFactory</code>.
+     */
+    static final class EventType {
+
+        private final Object factory;
+
+        EventType(String name, String label, String description, Object... fields) {
+            this.factory = JFR != null ? JFR.factory(PREFIX + name, label, description, fields) : null;
+        }
+
+        /**
+         * Begins an event of this type, its duration lasts until {@link Event#commit(Object...)}.
+         *
+         * @return The event, never <code>null</code>. If this event type is not recorded, the event is disabled.
+         */
+        Event begin() {
+            if (factory == null) {
+                return Event.DISABLED;
+            }
+            try {
+                Object event = JFR.newEvent.invoke(factory);
+                if (!(Boolean) JFR.isEnabled.invoke(event)) {
+                    return Event.DISABLED;
+                }
+                JFR.begin.invoke(event);
+                return new Event(event);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Cannot begin Flight Recorder event: {}", e.toString());
+                return Event.DISABLED;
+            }
+        }
+    }
+
+    /**
+     * A started event.
+     */
+    static final class Event {
+
+        static final Event DISABLED = new Event(null);
+
+        private final Object event;
+
+        private Event(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * Tells whether this event is recorded, to skip computing expensive values otherwise.
+         *
+         * @return <code>true</code> if this event is recorded, <code>false</code> otherwise.
+         */
+        boolean isEnabled() {
+            return event != null;
+        }
+
+        /**
+         * Ends and commits this event.
+         *
+         * @param values The values of the event fields, in the order of their definition. Numbers must be
+         *            {@link Long}s.
+         */
+        void commit(Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                JFR.end.invoke(event);
+                if ((Boolean) JFR.shouldCommit.invoke(event)) {
+                    for (int i = 0; i < values.length; i++) {
+                        JFR.set.invoke(event, i, values[i]);
+                    }
+                    JFR.commit.invoke(event);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Cannot commit Flight Recorder event: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * The reflective entry points into <code>jdk.jfr</code>.
+     */
+    private static final class Jfr {
+
+        private Constructor<?> annotationElement;
+
+        private Constructor<?> valueDescriptor;
+
+        private Method create;
+
+        private Method newEvent;
+
+        private Method isEnabled;
+
+        private Method begin;
+
+        private Method end;
+
+        private Method shouldCommit;
+
+        private Method set;
+
+        private Method commit;
+
+        static Jfr load() {
+            try {
+                ClassLoader loader = ClassLoader.getSystemClassLoader();
+                Jfr jfr = new Jfr();
+                Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement", false, loader);
+                jfr.annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+                jfr.valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", false, loader)
+                        .getConstructor(Class.class, String.class, List.class);
+                Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", false, loader);
+                jfr.create = eventFactory.getMethod("create", List.class, List.class);
+                jfr.newEvent = eventFactory.getMethod("newEvent");
+                Class<?> event = Class.forName("jdk.jfr.Event", false, loader);
+                jfr.isEnabled = event.getMethod("isEnabled");
+                jfr.begin = event.getMethod("begin");
+                jfr.end = event.getMethod("end");
+                jfr.shouldCommit = event.getMethod("shouldCommit");
+                jfr.set = event.getMethod("set", int.class, Object.class);
+                jfr.commit = event.getMethod("commit");
+                return jfr;
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOG.debug("Java Flight Recorder is not available: {}", e.toString());
+                return null;
+            }
+        }
+
+        Object annotation(String type, Object value) throws ReflectiveOperationException {
+            Class<? extends Annotation> annotationType = Class.forName(type, false, ClassLoader.getSystemClassLoader())
+                    .asSubclass(Annotation.class);
+            return annotationElement.newInstance(annotationType, value);
+        }
+
+        Object factory(String name, String label, String description, Object... fields) {
+            if (Arrays.asList(fields).contains(null)) {
+                return null;
+            }
+            try {
+                List<Object> annotations = Arrays.asList(
+                        annotation("jdk.jfr.Name", name),
+                        annotation("jdk.jfr.Label", label),
+                        annotation("jdk.jfr.Description", description),
+                        annotation("jdk.jfr.Category", CATEGORY.clone()));
+                return create.invoke(null, annotations, Collections.unmodifiableList(Arrays.asList(fields)));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Cannot define Flight Recorder event {}: {}", name, e.toString());
+                return null;
+            }
+        }
+    }
+}
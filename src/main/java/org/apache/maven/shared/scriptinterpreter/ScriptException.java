@@ -41,6 +41,16 @@ public class ScriptException extends Exception {
         super(message);
     }
 
+    /**
+     * Creates a new exception without a cause, optionally without capturing the stack trace.
+     *
+     * @param message The message, may be <code>null</code>.
+     * @param writableStackTrace <code>false</code> to not capture the stack trace.
+     */
+    ScriptException(String message, boolean writableStackTrace) {
+        super(message, null, true, writableStackTrace);
+    }
+
     ScriptException(Throwable cause) {
         super(cause);
     }
@@ -20,6 +20,7 @@ package org.apache.maven.shared.scriptinterpreter;
 
 import java.io.Closeable;
 import java.io.PrintStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -37,10 +38,38 @@ public interface ScriptInterpreter extends Closeable {
      * @param classPath The additional class path for the script interpreter, may be <code>null</code> or empty if only
      *                  the plugin realm should be used for the script evaluation. If specified, this class path will
      *                  precede
-     *                  the artifacts from the plugin class path.
+     *                  the artifacts from the plugin class path. Entries which are already on the class path should
+     *                  be ignored, so that repeated calls do not slow down later class lookups.
      */
     void setClassPath(List<String> classPath);
 
+    /**
+     * Loads the specified classes with the class loader used for script evaluation, so that the first scripts do not
+     * have to wait for them. Classes which cannot be loaded are ignored. The default implementation does nothing.
+     *
+     * @param classNames The binary names of the classes to load, must not be <code>null</code>.
+     * @since 1.8
+     */
+    default void preloadClasses(Collection<String> classNames) {
+        // nothing to do by default
+    }
+
+    /**
+     * Sets a prelude script which is evaluated once and whose definitions (like helper methods or classes) are then
+     * available to every script evaluated by this interpreter. The prelude is compiled with the current class path, so
+     * the class path should be set first. The default implementation does not support preludes.
+     *
+     * @param prelude The contents of the prelude script, may be <code>null</code> to remove the current prelude.
+     * @throws ScriptEvaluationException If the prelude could not be compiled or evaluated.
+     * @throws UnsupportedOperationException If this interpreter does not support preludes.
+     * @since 1.8
+     */
+    default void setPrelude(String prelude) throws ScriptEvaluationException {
+        if (prelude != null) {
+            throw new UnsupportedOperationException(getClass().getName() + " does not support prelude scripts");
+        }
+    }
+
     /**
      * Evaluates the specified script.
      *
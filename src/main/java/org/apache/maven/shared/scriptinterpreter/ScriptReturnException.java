@@ -33,13 +33,14 @@ public class ScriptReturnException extends ScriptException {
     private final Object result;
 
     /**
-     * Creates a new exception with the specified message and result.
+     * Creates a new exception with the specified message and result. The stack trace is not captured, since it would
+     * only show the runner and not the script.
      *
      * @param message The message, may be <code>null</code>.
      * @param result The cause, may be <code>null</code>.
      */
     ScriptReturnException(String message, Object result) {
-        super(message);
+        super(message, false);
         this.result = result;
     }
 
@@ -21,15 +21,37 @@ package org.apache.maven.shared.scriptinterpreter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,15 +62,22 @@ import org.slf4j.LoggerFactory;
  */
 public class ScriptRunner implements Closeable {
 
-    private static final Object LOCK = new Object();
+    private static final Lock LOCK = new ReentrantLock();
 
     private static final Logger LOG = LoggerFactory.getLogger(ScriptRunner.class);
 
     /**
      * The supported script interpreters, indexed by the lower-case file extension of their associated script files,
-     * never <code>null</code>.
+     * never <code>null</code>. The map is copied on write, so evaluations can look up interpreters while the class path
+     * is replaced.
      */
-    private final Map<String, ScriptInterpreter> scriptInterpreters;
+    private volatile Map<String, ScriptInterpreter> scriptInterpreters;
+
+    /**
+     * The current versions of the interpreters, by interpreter. Versions are removed before they are retired, so that
+     * evaluations of scripts resolved to a retired interpreter fall back to the current one.
+     */
+    private final ConcurrentMap<ScriptInterpreter, InterpreterVersion> versions = new ConcurrentHashMap<>();
 
     /**
      * The common set of global variables to pass into the script interpreter, never <code>null</code>.
@@ -60,13 +89,111 @@ public class ScriptRunner implements Closeable {
      */
     private String encoding;
 
+    /**
+     * Whether the encoding of the hook scripts is detected per file.
+     */
+    private boolean detectEncoding;
+
+    /**
+     * The maximum length of scripts evaluated in expression mode, <code>0</code> to disable expression mode.
+     */
+    private int expressionMaxLength;
+
+    /**
+     * The decoder for the current encoding, never <code>null</code>.
+     */
+    private ScriptDecoder decoder = ScriptDecoder.forEncoding(null, false);
+
+    /**
+     * Whether scripts may be evaluated concurrently instead of one at a time.
+     */
+    private boolean concurrent;
+
+    /**
+     * The additional class path of the hook scripts without duplicates, never <code>null</code>. The list is copied on
+     * write.
+     */
+    private volatile List<String> classPath = new ArrayList<>();
+
+    /**
+     * The pool of worker JVMs to evaluate scripts in or <code>null</code> to evaluate scripts in-process.
+     */
+    private ScriptWorkerPool workerPool;
+
+    /**
+     * The classes to load when the class path is set, never <code>null</code>.
+     */
+    private List<String> preloadClasses = new ArrayList<>();
+
+    /**
+     * The prelude scripts, indexed by interpreter id, never <code>null</code>.
+     */
+    private final Map<String, String> preludes = new HashMap<>();
+
+    /**
+     * The base class of the Groovy hook scripts or <code>null</code> to use the default.
+     */
+    private String groovyScriptBaseClass;
+
+    /**
+     * The number of evaluated scripts.
+     */
+    private final LongAdder evaluations = new LongAdder();
+
+    private int maxEvaluationsPerLoader;
+
+    private long maxGeneratedClassBytesPerLoader;
+
+    /**
+     * Whether the built-in interpreters are leased from the process-wide {@link InterpreterRegistry}.
+     */
+    private boolean shareInterpreters;
+
+    private final ReentrantLock leasesLock = new ReentrantLock();
+
+    /**
+     * The leases of the shared interpreters indexed by interpreter id, guarded by {@link #leasesLock}.
+     */
+    private final Map<String, InterpreterRegistry.Lease> leases = new HashMap<>();
+
+    /**
+     * The costs of the evaluated scripts or <code>null</code> if no slow script report was requested.
+     */
+    private volatile SlowScriptReport slowScriptReport;
+
+    /**
+     * The history to record script durations in or <code>null</code> if durations are not recorded.
+     */
+    private volatile ScriptTimingHistory timingHistory;
+
+    private final AdmissionControl admissionControl = new AdmissionControl();
+
+    /**
+     * The structured log to write the script events to or <code>null</code> if there is none.
+     */
+    private volatile JsonLinesLog jsonLinesLog;
+
+    private boolean filterStackTraces;
+
+    private int maxStackTraceDepth;
+
+    /**
+     * The printer for the stack traces of failed scripts or <code>null</code> to print them in full.
+     */
+    private volatile StackTracePrinter stackTracePrinter;
+
+    /**
+     * Whether evaluations need to be admitted by {@link #admissionControl}.
+     */
+    private volatile boolean admissionControlled;
+
     /**
      * Creates a new script runner with BSH and Groovy interpreters.
      */
     public ScriptRunner() {
         scriptInterpreters = new LinkedHashMap<>();
-        scriptInterpreters.put("bsh", new BeanShellScriptInterpreter());
-        scriptInterpreters.put("groovy", new GroovyScriptInterpreter());
+        addScriptInterpreter("bsh", new BeanShellScriptInterpreter());
+        addScriptInterpreter("groovy", new GroovyScriptInterpreter());
         globalVariables = new HashMap<>();
     }
 
@@ -77,7 +204,13 @@ public class ScriptRunner implements Closeable {
      * @param scriptInterpreter the Script Interpreter implementation
      */
     public void addScriptInterpreter(String id, ScriptInterpreter scriptInterpreter) {
-        scriptInterpreters.put(id, scriptInterpreter);
+        Map<String, ScriptInterpreter> interpreters = new LinkedHashMap<>(scriptInterpreters);
+        ScriptInterpreter previous = interpreters.put(id, scriptInterpreter);
+        if (previous != null && !interpreters.containsValue(previous)) {
+            versions.remove(previous);
+        }
+        versions.putIfAbsent(scriptInterpreter, new InterpreterVersion(scriptInterpreter));
+        scriptInterpreters = interpreters;
     }
 
     /**
@@ -96,14 +229,352 @@ public class ScriptRunner implements Closeable {
      *
      * @param classPath The additional class path for the script interpreter, may be <code>null</code> or empty if only
      * the plugin realm should be used for the script evaluation. If specified, this class path will precede the
-     * artifacts from the plugin class path.
+     * artifacts from the plugin class path. Entries which are already on the class path are ignored.
+     * @see #replaceClassPath(List)
      */
     public void setClassPath(List<String> classPath) {
         if (classPath != null && !classPath.isEmpty()) {
-            scriptInterpreters.values().forEach(scriptInterpreter -> scriptInterpreter.setClassPath(classPath));
+            Set<String> added = new LinkedHashSet<>(classPath);
+            added.removeAll(this.classPath);
+            if (added.isEmpty()) {
+                return;
+            }
+            List<String> entries = new ArrayList<>(this.classPath);
+            entries.addAll(added);
+            this.classPath = entries;
+            releaseLeases();
+            for (ScriptInterpreter scriptInterpreter : scriptInterpreters.values()) {
+                if (!isShared(scriptInterpreter)) {
+                    scriptInterpreter.setClassPath(new ArrayList<>(added));
+                    if (!preloadClasses.isEmpty()) {
+                        scriptInterpreter.preloadClasses(preloadClasses);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the additional class path of the hook scripts. Class loaders can only be extended, so the built-in
+     * interpreters are replaced by new versions with fresh class loaders. Evaluations which are already running finish
+     * on the previous versions, which are closed (together with their class loaders) afterwards, so class lookups do
+     * not slow down in long-lived runners. Custom interpreters only get the entries which they do not know yet.
+     *
+     * @param classPath The new additional class path for the script interpreter, may be <code>null</code> or empty if
+     *            only the plugin realm should be used for the script evaluation.
+     * @throws ScriptEvaluationException If a new interpreter version could not be configured, e.g. because its prelude
+     *             failed.
+     * @see #setClassPath(List)
+     * @since 1.8
+     */
+    public void replaceClassPath(List<String> classPath) throws ScriptEvaluationException {
+        List<String> entries = classPath != null ? new ArrayList<>(new LinkedHashSet<>(classPath)) : new ArrayList<>();
+        this.classPath = entries;
+        releaseLeases();
+
+        Map<String, ScriptInterpreter> interpreters = new LinkedHashMap<>(scriptInterpreters);
+        Map<ScriptInterpreter, ScriptInterpreter> replacements = new HashMap<>();
+        try {
+            for (Map.Entry<String, ScriptInterpreter> entry : interpreters.entrySet()) {
+                ScriptInterpreter interpreter = entry.getValue();
+                String interpreterId = getBuiltInInterpreterId(interpreter);
+                if (interpreterId == null) {
+                    interpreter.setClassPath(entries);
+                    if (!preloadClasses.isEmpty()) {
+                        interpreter.preloadClasses(preloadClasses);
+                    }
+                } else if (!isShared(interpreter)) {
+                    ScriptInterpreter replacement = replacements.get(interpreter);
+                    if (replacement == null) {
+                        replacement = newBuiltInInterpreter(interpreterId);
+                        replacements.put(interpreter, replacement);
+                    }
+                    entry.setValue(replacement);
+                }
+            }
+        } catch (ScriptEvaluationException | RuntimeException e) {
+            for (ScriptInterpreter replacement : replacements.values()) {
+                try {
+                    replacement.close();
+                } catch (IOException ioe) {
+                    e.addSuppressed(ioe);
+                }
+            }
+            throw e;
+        }
+
+        for (ScriptInterpreter replacement : replacements.values()) {
+            versions.put(replacement, new InterpreterVersion(replacement));
+        }
+        scriptInterpreters = interpreters;
+        for (ScriptInterpreter previous : replacements.keySet()) {
+            InterpreterVersion version = versions.remove(previous);
+            if (version != null) {
+                version.retire();
+            }
+        }
+    }
+
+    /**
+     * Sets the classes to load in parallel whenever the class path is set, typically classes most hook scripts use.
+     * This moves their loading cost out of the first script evaluations. Classes which cannot be loaded are ignored.
+     *
+     * @param classNames The binary names of the classes to preload, may be <code>null</code> or empty to preload
+     *            nothing.
+     * @since 1.8
+     */
+    public void setPreloadClasses(List<String> classNames) {
+        this.preloadClasses = classNames != null ? new ArrayList<>(classNames) : new ArrayList<>();
+    }
+
+    /**
+     * Sets the base class of the Groovy hook scripts. The class must extend <code>groovy.lang.Script</code> and be
+     * available from the class path or the plugin realm. {@link VerificationScript} provides helpers to verify large
+     * build outputs without loading them into memory. The base class should be set before a Groovy prelude.
+     *
+     * @param className The fully qualified name of the base class, may be <code>null</code> to use the default.
+     * @since 1.8
+     */
+    public void setGroovyScriptBaseClass(String className) {
+        ScriptInterpreter interpreter = scriptInterpreters.get("groovy");
+        if (interpreter instanceof GroovyScriptInterpreter && !isShared(interpreter)) {
+            ((GroovyScriptInterpreter) interpreter).setScriptBaseClass(className);
+        }
+        this.groovyScriptBaseClass = className;
+        releaseLeases();
+    }
+
+    /**
+     * Sets the number of evaluations after which the class loader compiling the Groovy hook scripts is dropped together
+     * with all classes it generated. Recycling the loader keeps the metaspace usage of long-lived runners (e.g. in
+     * build daemons) bounded, at the cost of compiling scripts anew.
+     *
+     * @param maxEvaluations The number of evaluations, <code>0</code> for no limit.
+     * @see #getMetrics()
+     * @since 1.8
+     */
+    public void setMaxEvaluationsPerLoader(int maxEvaluations) {
+        this.maxEvaluationsPerLoader = maxEvaluations;
+        applyLoaderLimits();
+    }
+
+    /**
+     * Sets the size of generated bytecode after which the class loader compiling the Groovy hook scripts is dropped
+     * together with all classes it generated.
+     *
+     * @param maxBytes The number of bytes, <code>0</code> for no limit.
+     * @see #setMaxEvaluationsPerLoader(int)
+     * @since 1.8
+     */
+    public void setMaxGeneratedClassBytesPerLoader(long maxBytes) {
+        this.maxGeneratedClassBytesPerLoader = maxBytes;
+        applyLoaderLimits();
+    }
+
+    private void applyLoaderLimits() {
+        ScriptInterpreter interpreter = scriptInterpreters.get("groovy");
+        if (interpreter instanceof GroovyScriptInterpreter && !isShared(interpreter)) {
+            ((GroovyScriptInterpreter) interpreter)
+                    .setLoaderLimits(maxEvaluationsPerLoader, maxGeneratedClassBytesPerLoader);
+        }
+        releaseLeases();
+    }
+
+    /**
+     * Sets whether the built-in BeanShell and Groovy interpreters are shared with other runners of the same process.
+     * Shared interpreters are leased from a process-wide registry by their configuration (class path, prelude, script
+     * base class and loader limits) when first used and returned when this runner is closed. Interpreters returned by
+     * all runners are kept warm for a while, so consecutive builds in a long-lived process like a Maven daemon reuse
+     * loaded classes, compiled scripts and JIT-compiled code instead of starting from scratch. While kept warm, an
+     * interpreter also keeps the class loader of this runner (like the plugin realm) reachable, for up to 30 minutes
+     * after the last runner using it closed. This should be enabled before the runner is configured.
+     *
+     * @param shareInterpreters <code>true</code> to share the built-in interpreters, <code>false</code> to use
+     *            interpreters owned by this runner.
+     * @since 1.8
+     */
+    public void setShareInterpreters(boolean shareInterpreters) {
+        releaseLeases();
+        this.shareInterpreters = shareInterpreters;
+    }
+
+    /**
+     * Gets a snapshot of the resource usage of this runner, like the number of evaluations, the classes generated from
+     * scripts and the metaspace usage of the JVM. Scripts evaluated in worker JVMs only count as evaluations.
+     *
+     * @return The metrics, never <code>null</code>.
+     * @since 1.8
+     */
+    public ScriptRunnerMetrics getMetrics() {
+        ScriptInterpreter interpreter = scriptInterpreters.get("groovy");
+        if (isShared(interpreter)) {
+            leasesLock.lock();
+            try {
+                InterpreterRegistry.Lease lease = leases.get("groovy");
+                interpreter = lease != null ? lease.getInterpreter() : null;
+            } finally {
+                leasesLock.unlock();
+            }
+        }
+        ClassGenerationStatistics statistics = interpreter instanceof GroovyScriptInterpreter
+                ? ((GroovyScriptInterpreter) interpreter).getStatistics()
+                : new ClassGenerationStatistics();
+        return new ScriptRunnerMetrics(evaluations.sum(), statistics);
+    }
+
+    /**
+     * Sets the number of scripts to list in the slow script report. When enabled, the runner records for every
+     * evaluation the time spent compiling (Groovy) or parsing (BeanShell) the script, the time spent running it and
+     * the number of bytes it wrote to the logger, so the report can rank the most expensive hook scripts by each of
+     * these costs. Scripts evaluated in worker JVMs or by custom interpreters only have their total evaluation time
+     * recorded as run time.
+     *
+     * @param size The number of scripts to list per ranking, <code>0</code> to disable the report and discard the
+     *            recorded evaluations.
+     * @see #writeSlowScriptReport(ExecutionLogger)
+     * @see #writeSlowScriptReport(File)
+     * @since 1.8
+     */
+    public void setSlowScriptReportSize(int size) {
+        this.slowScriptReport = size > 0 ? new SlowScriptReport(size) : null;
+    }
+
+    /**
+     * Writes the slow script report as text lines to the given logger. Nothing is written if the report is disabled.
+     *
+     * @param logger The logger to write the report to, must not be <code>null</code>.
+     * @see #setSlowScriptReportSize(int)
+     * @since 1.8
+     */
+    public void writeSlowScriptReport(ExecutionLogger logger) {
+        SlowScriptReport report = this.slowScriptReport;
+        if (report != null) {
+            report.write(logger);
+        }
+    }
+
+    /**
+     * Writes the slow script report as JSON document to the given file. Nothing is written if the report is disabled.
+     *
+     * @param file The file to write the report to, must not be <code>null</code>.
+     * @throws IOException If the file could not be written.
+     * @see #setSlowScriptReportSize(int)
+     * @since 1.8
+     */
+    public void writeSlowScriptReport(File file) throws IOException {
+        SlowScriptReport report = this.slowScriptReport;
+        if (report != null) {
+            report.write(file);
+        }
+    }
+
+    /**
+     * Sets the structured log to write a JSON record for each script start, output chunk, exception and finish to, in
+     * addition to the text written to the {@link ExecutionLogger}s. Closing the log is up to the caller.
+     *
+     * @param jsonLinesLog The log, may be <code>null</code> to not write structured records.
+     * @since 1.8
+     */
+    public void setJsonLinesLog(JsonLinesLog jsonLinesLog) {
+        this.jsonLinesLog = jsonLinesLog;
+    }
+
+    /**
+     * Sets whether the stack traces of failed scripts are printed to the log in a compact form. Runs of frames from the
+     * interpreter internals, like the Groovy runtime and call site plumbing, are collapsed into a single line. A stack
+     * trace which was already printed for another script is replaced by a reference to that script.
+     *
+     * @param filterStackTraces <code>true</code> to filter stack traces, <code>false</code> to print them in full.
+     * @since 1.8
+     */
+    public void setFilterStackTraces(boolean filterStackTraces) {
+        this.filterStackTraces = filterStackTraces;
+        updateStackTracePrinter();
+    }
+
+    /**
+     * Sets the maximum number of frames printed to the log per throwable of a failed script, not counting collapsed
+     * internal frames. Like {@link #setFilterStackTraces(boolean)}, this also deduplicates the stack traces.
+     *
+     * @param maxStackTraceDepth The maximum number of frames, <code>0</code> for no limit.
+     * @since 1.8
+     */
+    public void setMaxStackTraceDepth(int maxStackTraceDepth) {
+        this.maxStackTraceDepth = maxStackTraceDepth;
+        updateStackTracePrinter();
+    }
+
+    private void updateStackTracePrinter() {
+        if (filterStackTraces || maxStackTraceDepth > 0) {
+            stackTracePrinter = new StackTracePrinter(
+                    filterStackTraces ? StackTracePrinter.INTERNAL_FRAME_PREFIXES : Collections.emptyList(),
+                    maxStackTraceDepth);
+        } else {
+            stackTracePrinter = null;
         }
     }
 
+    /**
+     * Sets the history to record the duration of each script run in. The history is used by
+     * {@link #sortLongestFirst(Collection)} and {@link #runAll(String, Collection, Map, ExecutionLogger, Executor)} to
+     * start the longest scripts first. Saving the history is up to the caller.
+     *
+     * @param timingHistory The history, may be <code>null</code> to not record durations.
+     * @since 1.8
+     */
+    public void setTimingHistory(ScriptTimingHistory timingHistory) {
+        this.timingHistory = timingHistory;
+    }
+
+    /**
+     * Sets the prelude script for an interpreter. The prelude is compiled once and its definitions (like helper
+     * methods or classes) are available to every hook script evaluated by the interpreter, so common helpers need not
+     * be copied into and recompiled with each hook script. For Groovy, the prelude script becomes the base class of
+     * the hook scripts. For BeanShell, the prelude is evaluated into a namespace the hook scripts inherit from. The
+     * class path should be set before the prelude.
+     *
+     * @param interpreterId The id of the interpreter, like <code>groovy</code> or <code>bsh</code>, must not be
+     *            <code>null</code>.
+     * @param prelude The contents of the prelude script, may be <code>null</code> to remove the prelude.
+     * @throws ScriptEvaluationException If the prelude could not be compiled or evaluated.
+     * @throws IllegalArgumentException If there is no interpreter with the given id.
+     * @since 1.8
+     */
+    public void setPrelude(String interpreterId, String prelude) throws ScriptEvaluationException {
+        ScriptInterpreter interpreter = scriptInterpreters.get(interpreterId);
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Unknown script interpreter: " + interpreterId);
+        }
+        if (!isShared(interpreter)) {
+            interpreter.setPrelude(prelude);
+        }
+        if (prelude != null) {
+            preludes.put(interpreterId, prelude);
+        } else {
+            preludes.remove(interpreterId);
+        }
+        releaseLeases();
+        if (isShared(interpreter)) {
+            // surface errors of the prelude right away, like for interpreters owned by this runner
+            leaseShared(interpreterId).close();
+        }
+    }
+
+    /**
+     * Sets the prelude script for an interpreter from a file, read with the script encoding.
+     *
+     * @param interpreterId The id of the interpreter, like <code>groovy</code> or <code>bsh</code>, must not be
+     *            <code>null</code>.
+     * @param preludeFile The prelude script file, must not be <code>null</code>.
+     * @throws IOException If the prelude file could not be read.
+     * @throws ScriptEvaluationException If the prelude could not be compiled or evaluated.
+     * @see #setPrelude(String, String)
+     * @since 1.8
+     */
+    public void setPrelude(String interpreterId, File preludeFile) throws IOException, ScriptEvaluationException {
+        setPrelude(interpreterId, decode(Files.readAllBytes(preludeFile.toPath())));
+    }
+
     /**
      * Sets the file encoding of the hook scripts.
      *
@@ -112,6 +583,102 @@ public class ScriptRunner implements Closeable {
      */
     public void setScriptEncoding(String encoding) {
         this.encoding = encoding != null && !encoding.isEmpty() ? encoding : null;
+        this.decoder = ScriptDecoder.forEncoding(this.encoding, detectEncoding);
+    }
+
+    /**
+     * Sets whether the encoding of the hook scripts is detected per file, for repositories with scripts in different
+     * encodings. A byte order mark selects UTF-8, UTF-16 or UTF-32 and is stripped; otherwise, scripts which are valid
+     * UTF-8 are read as UTF-8 and all other scripts with the script encoding. Pure ASCII scripts are read the same in
+     * any case.
+     *
+     * @param detectEncoding <code>true</code> to detect the encoding per file, <code>false</code> to always use the
+     *            script encoding.
+     * @see #setScriptEncoding(String)
+     * @since 1.8
+     */
+    public void setDetectScriptEncoding(boolean detectEncoding) {
+        this.detectEncoding = detectEncoding;
+        this.decoder = ScriptDecoder.forEncoding(encoding, detectEncoding);
+    }
+
+    /**
+     * Sets the maximum length of scripts evaluated in expression mode. Scripts of a single line up to this length,
+     * typically selector conditions like <code>return System.getProperty("java.version").startsWith("17")</code>, are
+     * evaluated with as little setup as possible: BeanShell parses each distinct expression only once and evaluates it
+     * with a pooled engine in a fresh global namespace instead of creating a new engine. Groovy caches compiled
+     * scripts in any case.
+     *
+     * @param maxLength The maximum number of characters of an expression, <code>0</code> to disable expression mode.
+     * @since 1.8
+     */
+    public void setExpressionMaxLength(int maxLength) {
+        this.expressionMaxLength = maxLength;
+    }
+
+    /**
+     * Limits the number of concurrent evaluations of an interpreter in concurrent mode. Scripts can declare a weight
+     * with a hint like <code>// @weight 4</code> in their leading comments, a script then counts as that many
+     * evaluations. Scripts without a hint have a weight of <code>1</code>. A script heavier than the limit runs once no
+     * other script of the interpreter runs.
+     *
+     * @param interpreterId The id of the interpreter, i.e. the script extension like <code>groovy</code>, must not be
+     *            <code>null</code>.
+     * @param maxEvaluations The maximum total weight of the scripts evaluated at once, <code>0</code> for no limit.
+     * @see #setConcurrent(boolean)
+     * @since 1.8
+     */
+    public void setMaxConcurrentEvaluations(String interpreterId, int maxEvaluations) {
+        admissionControl.setCapacity(interpreterId, maxEvaluations);
+        if (maxEvaluations > 0) {
+            admissionControlled = true;
+        }
+    }
+
+    /**
+     * Sets the heap usage above which no further evaluations are started in concurrent mode. Evaluations wait until
+     * the usage reported by the {@link java.lang.management.MemoryMXBean} drops below the threshold again, though an
+     * evaluation is always admitted while no other one runs.
+     *
+     * @param heapThreshold The fraction of the maximum heap size between <code>0</code> and <code>1</code>, like
+     *            <code>0.8</code>, or <code>0</code> to not throttle on heap usage.
+     * @since 1.8
+     */
+    public void setHeapThreshold(double heapThreshold) {
+        if (heapThreshold < 0 || heapThreshold > 1) {
+            throw new IllegalArgumentException("heapThreshold must be between 0 and 1: " + heapThreshold);
+        }
+        admissionControl.setHeapThreshold(heapThreshold);
+        if (heapThreshold > 0) {
+            admissionControlled = true;
+        }
+    }
+
+    /**
+     * Sets whether scripts may be evaluated concurrently. By default, evaluations are serialized across all runners
+     * because script interpreters may redirect the process-wide system streams. The built-in interpreters redirect
+     * the system streams per thread and coordinate through {@link java.util.concurrent.locks.Lock}s only, so in
+     * concurrent mode they can run many scripts in parallel, including on virtual threads, without pinning carrier
+     * threads. Custom interpreters must be thread-safe to be used in this mode.
+     *
+     * @param concurrent <code>true</code> to evaluate scripts concurrently, <code>false</code> to serialize them.
+     * @since 1.8
+     */
+    public void setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Sets the pool of worker JVMs to evaluate the BeanShell and Groovy hook scripts in. Evaluating scripts out of
+     * process isolates the build from scripts which modify JVM-global state or leak resources. Custom interpreters
+     * added with {@link #addScriptInterpreter(String, ScriptInterpreter)} always run in-process. The pool is not closed
+     * by this runner.
+     *
+     * @param workerPool The worker pool, may be <code>null</code> to evaluate all scripts in-process.
+     * @since 1.8
+     */
+    public void setWorkerPool(ScriptWorkerPool workerPool) {
+        this.workerPool = workerPool;
     }
 
     /**
@@ -138,9 +705,12 @@ public class ScriptRunner implements Closeable {
             return;
         }
 
+        ScriptEvents.Event event = ScriptEvents.RESOLVED.begin();
         final File scriptFile = resolveScript(new File(basedir, relativeScriptPath));
+        boolean found = scriptFile.exists();
+        event.commit(scriptFile.getPath(), found);
 
-        if (!scriptFile.exists()) {
+        if (!found) {
             LOG.debug(
                     "{} : no script '{}' found in directory {}",
                     scriptDescription,
@@ -149,7 +719,7 @@ public class ScriptRunner implements Closeable {
             return;
         }
 
-        executeRun(scriptDescription, scriptFile, context, logger);
+        executeRun(scriptDescription, scriptFile, getInterpreter(scriptFile), context, logger);
     }
 
     /**
@@ -171,64 +741,478 @@ public class ScriptRunner implements Closeable {
             return;
         }
 
-        executeRun(scriptDescription, scriptFile, context, logger);
+        executeRun(scriptDescription, scriptFile, getInterpreter(scriptFile), context, logger);
     }
 
-    private void executeRun(
-            final String scriptDescription, File scriptFile, final Map<String, ?> context, final ExecutionLogger logger)
+    /**
+     * Runs the specified hook script as resolved by {@link #resolveAll(Collection, String)}.
+     *
+     * @param scriptDescription The description of the script to use for logging, must not be <code>null</code>.
+     * @param script The resolved script, must not be <code>null</code>.
+     * @param context The key-value storage used to share information between hook scripts, may be <code>null</code>.
+     * @param logger The logger to redirect the script output to, may be <code>null</code> to use stdout/stderr.
+     * @throws IOException If an I/O error occurred while reading the script file.
+     * @throws ScriptException If the script did not return <code>true</code> of threw an exception.
+     * @since 1.8
+     */
+    public void run(
+            final String scriptDescription,
+            final ResolvedScript script,
+            final Map<String, ?> context,
+            final ExecutionLogger logger)
             throws IOException, ScriptException {
-        ScriptInterpreter interpreter = getInterpreter(scriptFile);
-        if (LOG.isDebugEnabled()) {
-            String name = interpreter.getClass().getName();
-            name = name.substring(name.lastIndexOf('.') + 1);
-            LOG.debug("Running script with {} :{}", name, scriptFile);
+        executeRun(scriptDescription, script.getScriptFile(), script.getInterpreter(), context, logger);
+    }
+
+    /**
+     * Orders the specified scripts by their recorded durations, longest first. Scripts without a duration recorded for
+     * their current contents come first since their duration is unknown, otherwise the order of the given scripts is
+     * kept.
+     *
+     * @param scripts The scripts to order, must not be <code>null</code>.
+     * @return The ordered scripts, never <code>null</code>.
+     * @see #setTimingHistory(ScriptTimingHistory)
+     * @since 1.8
+     */
+    public List<ResolvedScript> sortLongestFirst(Collection<ResolvedScript> scripts) {
+        List<ResolvedScript> ordered = new ArrayList<>(scripts);
+        ScriptTimingHistory history = this.timingHistory;
+        if (history == null) {
+            return ordered;
         }
 
-        String script;
-        try {
-            byte[] bytes = Files.readAllBytes(scriptFile.toPath());
-            if (encoding != null) {
-                script = new String(bytes, encoding);
+        Map<ResolvedScript, Long> durations = new HashMap<>();
+        for (ResolvedScript script : ordered) {
+            long duration;
+            try {
+                File scriptFile = script.getScriptFile();
+                duration = history.getDuration(
+                        scriptFile, ScriptTimingHistory.hash(Files.readAllBytes(scriptFile.toPath())));
+            } catch (IOException e) {
+                duration = -1;
+            }
+            durations.put(script, duration < 0 ? Long.MAX_VALUE : duration);
+        }
+        ordered.sort(Comparator.comparing(durations::get, Comparator.reverseOrder()));
+        return ordered;
+    }
+
+    /**
+     * Runs the specified scripts on the given executor, longest first as ordered by
+     * {@link #sortLongestFirst(Collection)}, and waits for all of them. The runs should be allowed to overlap with
+     * {@link #setConcurrent(boolean)}. All scripts are run even if some of them fail.
+     *
+     * @param scriptDescription The description of the scripts to use for logging, must not be <code>null</code>.
+     * @param scripts The scripts to run, must not be <code>null</code>.
+     * @param context The key-value storage shared by all scripts, may be <code>null</code>.
+     * @param logger The logger to redirect the script output to, may be <code>null</code> to use stdout/stderr.
+     * @param executor The executor to run the scripts on, may be <code>null</code> to run them one after the other in
+     *            the calling thread.
+     * @throws IOException If a script could not be read or the waiting thread was interrupted.
+     * @throws ScriptException If a script failed, further failures are attached as suppressed exceptions.
+     * @since 1.8
+     */
+    public void runAll(
+            String scriptDescription,
+            Collection<ResolvedScript> scripts,
+            Map<String, ?> context,
+            ExecutionLogger logger,
+            Executor executor)
+            throws IOException, ScriptException {
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        for (ResolvedScript script : sortLongestFirst(scripts)) {
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                run(scriptDescription, script, context, logger);
+                return null;
+            });
+            tasks.add(task);
+            if (executor != null) {
+                executor.execute(task);
             } else {
-                script = new String(bytes);
+                task.run();
+            }
+        }
+
+        Throwable failure = null;
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(t -> t.cancel(true));
+                throw new InterruptedIOException("Interrupted while waiting for " + scriptDescription);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof ScriptException) {
+            throw (ScriptException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Opens a session to run several hook scripts of one project, like its <code>setup</code>, <code>prebuild</code>,
+     * <code>postbuild</code> and <code>verify</code> scripts, in one interpreter context. The scripts of a session
+     * share their variables (the global variables of this runner, the context and any session variables), the logger
+     * and a single listing of each script directory. With {@link ScriptSession#setShareVariables(boolean)}, the
+     * top-level variables assigned by a script are even visible to the later scripts of the session. The scripts are
+     * evaluated by the interpreters of this runner, so they also share its class loaders and compiled scripts.
+     *
+     * @param basedir The base directory of the project, must not be <code>null</code>.
+     * @param context The key-value storage used to share information between hook scripts, may be <code>null</code>.
+     * @param logger The logger to redirect the script output to, may be <code>null</code> to use stdout/stderr.
+     * @return The session, never <code>null</code>.
+     * @since 1.8
+     */
+    public ScriptSession openSession(File basedir, Map<String, ?> context, ExecutionLogger logger) {
+        return new ScriptSession(this, basedir, context, logger);
+    }
+
+    /**
+     * Resolves the specified hook script in many base directories at once. The base directories are processed in
+     * parallel and each directory containing a candidate script is listed only once, instead of probing every possible
+     * file extension. The resolution follows the same rules as
+     * {@link #run(String, File, String, Map, ExecutionLogger)}.
+     *
+     * @param basedirs The base directories of the projects, must not be <code>null</code>.
+     * @param relativeScriptPath The path to the script relative to each base directory, may not have extensions
+     *            (resolution will search), must not be <code>null</code>.
+     * @return The resolved scripts indexed by base directory in the iteration order of the base directories, never
+     *         <code>null</code>. Base directories without the script are not included.
+     * @throws IOException If a directory could not be listed.
+     * @since 1.8
+     */
+    public Map<File, ResolvedScript> resolveAll(Collection<File> basedirs, String relativeScriptPath)
+            throws IOException {
+        Map<File, ResolvedScript> resolved = new ConcurrentHashMap<>();
+        try {
+            basedirs.parallelStream().distinct().forEach(basedir -> {
+                ScriptEvents.Event event = ScriptEvents.RESOLVED.begin();
+                File scriptFile = resolveScriptFromListing(new File(basedir, relativeScriptPath));
+                event.commit(
+                        scriptFile != null ? scriptFile.getPath() : new File(basedir, relativeScriptPath).getPath(),
+                        scriptFile != null);
+                if (scriptFile != null) {
+                    resolved.put(basedir, new ResolvedScript(scriptFile, getInterpreter(scriptFile)));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<File, ResolvedScript> result = new LinkedHashMap<>();
+        for (File basedir : basedirs) {
+            ResolvedScript script = resolved.get(basedir);
+            if (script != null) {
+                result.put(basedir, script);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves the specified script like {@link #resolveScript(File)} does, but with a single listing of its parent
+     * directory.
+     *
+     * @param scriptFile The script file to resolve, must not be <code>null</code>.
+     * @return The effective path to the script file or <code>null</code> if no such script exists.
+     * @throws UncheckedIOException If the parent directory could not be listed.
+     */
+    private File resolveScriptFromListing(File scriptFile) {
+        Path directory = scriptFile.getAbsoluteFile().toPath().getParent();
+        if (directory == null) {
+            return null;
+        }
+        return resolveScript(scriptFile, listDirectory(directory, scriptFile.getName()));
+    }
+
+    /**
+     * Lists the names of the entries of the specified directory.
+     *
+     * @param directory The directory to list, must not be <code>null</code>.
+     * @param prefix The prefix of the names to list, must not be <code>null</code>.
+     * @return The names of the matching entries or <code>null</code> if the directory does not exist.
+     * @throws UncheckedIOException If the directory could not be listed.
+     */
+    static Set<String> listDirectory(Path directory, String prefix) {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                directory, entry -> entry.getFileName().toString().startsWith(prefix))) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return names;
+    }
+
+    /**
+     * Resolves the specified script like {@link #resolveScript(File)} does, but against a listing of its parent
+     * directory.
+     *
+     * @param scriptFile The script file to resolve, must not be <code>null</code>.
+     * @param names The names of the entries of the parent directory, may be <code>null</code> if it does not exist.
+     * @return The effective path to the script file or <code>null</code> if no such script exists.
+     */
+    File resolveScript(File scriptFile, Set<String> names) {
+        if (names == null) {
+            return null;
+        }
+        String name = scriptFile.getName();
+        if (names.contains(name)) {
+            return scriptFile;
+        }
+        for (String ext : this.scriptInterpreters.keySet()) {
+            if (names.contains(name + '.' + ext)) {
+                return new File(scriptFile.getPath() + '.' + ext);
             }
+        }
+        return null;
+    }
+
+    private void executeRun(
+            final String scriptDescription,
+            File scriptFile,
+            ScriptInterpreter interpreter,
+            final Map<String, ?> context,
+            final ExecutionLogger logger)
+            throws IOException, ScriptException {
+        Map<String, Object> scriptVariables = newScriptVariables();
+        scriptVariables.put("context", context);
+        executeRun(scriptDescription, scriptFile, interpreter, scriptVariables, false, logger);
+    }
+
+    /**
+     * Evaluates the specified script.
+     *
+     * @param scriptDescription The description of the script to use for logging, must not be <code>null</code>.
+     * @param scriptFile The path to the script, must not be <code>null</code>.
+     * @param interpreter The interpreter to evaluate the script with, must not be <code>null</code>.
+     * @param scriptVariables The mutable variables of the script, the <code>basedir</code> is added, must not be
+     *            <code>null</code>.
+     * @param exportVariables Whether top-level variables assigned by the script are written back to the variables.
+     * @param logger The logger to redirect the script output to, may be <code>null</code> to use stdout/stderr.
+     * @throws IOException If an I/O error occurred while reading the script file.
+     * @throws ScriptException If the script did not return <code>true</code> of threw an exception.
+     */
+    void executeRun(
+            final String scriptDescription,
+            File scriptFile,
+            ScriptInterpreter interpreter,
+            final Map<String, Object> scriptVariables,
+            boolean exportVariables,
+            final ExecutionLogger logger)
+            throws IOException, ScriptException {
+        LOG.debug("Running script with {} :{}", interpreter.getClass().getSimpleName(), scriptFile);
+
+        byte[] contents;
+        String script;
+        try {
+            contents = Files.readAllBytes(scriptFile.toPath());
+            script = decode(contents);
         } catch (IOException e) {
             String errorMessage =
                     "error reading " + scriptDescription + " " + scriptFile.getPath() + ", " + e.getMessage();
             throw new IOException(errorMessage, e);
         }
 
-        Object result;
+        String interpreterId = getBuiltInInterpreterId(interpreter);
+        String interpreterName =
+                interpreterId != null ? interpreterId : interpreter.getClass().getSimpleName();
+        SlowScriptReport report = this.slowScriptReport;
+        ScriptTimingHistory history = this.timingHistory;
+        JsonLinesLog jsonLog = this.jsonLinesLog;
+        EvaluationOptions options = new EvaluationOptions(scriptFile.getPath(), exportVariables, isExpression(script));
+        EvaluationTimings timings = new EvaluationTimings();
+        ScriptEvents.Event evaluatedEvent = ScriptEvents.EVALUATED.begin();
+        ScriptEvents.Event failedEvent = ScriptEvents.FAILED.begin();
+        CountingOutputStream output = null;
+        boolean successful = false;
+        Throwable failure = null;
+        long start = System.nanoTime();
+
+        Object result = null;
         try {
+            if (jsonLog != null) {
+                jsonLog.started(scriptDescription, scriptFile, interpreterName);
+            }
             if (logger != null) {
                 logger.consumeLine("Running " + scriptDescription + ": " + scriptFile);
             }
 
             PrintStream out = (logger != null) ? logger.getPrintStream() : null;
+            if (out != null
+                    && (report != null || jsonLog != null || evaluatedEvent.isEnabled() || failedEvent.isEnabled())) {
+                output = new CountingOutputStream(out);
+                out = new PrintStream(output);
+            }
+            JsonLinesLog.Capture capture = out != null && jsonLog != null ? jsonLog.capture(scriptFile, out) : null;
+            out = capture != null ? capture.getOut() : out;
 
-            Map<String, Object> scriptVariables = new HashMap<>(this.globalVariables);
             scriptVariables.put("basedir", scriptFile.getParentFile());
-            scriptVariables.put("context", context);
 
-            synchronized (LOCK) {
-                result = interpreter.evaluateScript(script, scriptVariables, out);
+            evaluations.increment();
+            String workerInterpreterId = workerPool != null ? getBuiltInInterpreterId(interpreter) : null;
+            InterpreterHandle handle = workerInterpreterId == null ? acquireInterpreter(interpreter, scriptFile) : null;
+            interpreter = handle != null ? handle.getInterpreter() : interpreter;
+            try (InterpreterHandle inUse = handle;
+                    AdmissionControl.Admission ignored = admit(interpreter, script);
+                    SystemStreams.Redirection captured = capture != null ? capture.redirect() : null) {
+                if (workerInterpreterId != null) {
+                    result = workerPool.evaluate(
+                            workerInterpreterId,
+                            script,
+                            classPath,
+                            preludes,
+                            groovyScriptBaseClass,
+                            scriptVariables,
+                            out);
+                } else if (concurrent) {
+                    result = evaluate(interpreter, script, scriptVariables, out, options, timings);
+                } else {
+                    LOCK.lock();
+                    try {
+                        result = evaluate(interpreter, script, scriptVariables, out, options, timings);
+                    } finally {
+                        LOCK.unlock();
+                    }
+                }
             }
+            successful = result == null || Boolean.parseBoolean(String.valueOf(result));
             if (logger != null) {
                 logger.consumeLine("Finished " + scriptDescription + ": " + scriptFile);
             }
         } catch (ScriptEvaluationException e) {
             Throwable t = (e.getCause() != null) ? e.getCause() : e;
+            failure = t;
             if (logger != null) {
-                t.printStackTrace(logger.getPrintStream());
+                printStackTrace(t, scriptFile, logger.getPrintStream());
             }
             throw e;
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (output != null) {
+                output.flush();
+            }
+
+            long compileNanos = timings.getCompileNanos();
+            long runNanos = timings.getRunNanos();
+            if (compileNanos == 0 && runNanos == 0) {
+                // not a phased evaluation, e.g. in a worker JVM
+                runNanos = System.nanoTime() - start;
+            }
+            long outputBytes = output != null ? output.getByteCount() : 0;
+            if (successful) {
+                evaluatedEvent.commit(
+                        scriptFile.getPath(), scriptDescription, interpreterName, compileNanos, runNanos, outputBytes);
+            } else {
+                failedEvent.commit(
+                        scriptFile.getPath(),
+                        scriptDescription,
+                        interpreterName,
+                        failure != null ? failure.getClass().getName() : ScriptReturnException.class.getName(),
+                        failure != null ? failure.getMessage() : "returned " + result,
+                        outputBytes);
+            }
+            if (report != null) {
+                report.record(new SlowScriptReport.Entry(
+                        scriptDescription,
+                        scriptFile,
+                        interpreterName,
+                        compileNanos,
+                        runNanos,
+                        outputBytes,
+                        successful));
+            }
+            if (history != null) {
+                history.record(scriptFile, ScriptTimingHistory.hash(contents), compileNanos + runNanos);
+            }
+            if (jsonLog != null) {
+                if (failure != null) {
+                    jsonLog.exception(scriptFile, failure);
+                }
+                jsonLog.finished(
+                        scriptDescription,
+                        scriptFile,
+                        interpreterName,
+                        successful,
+                        compileNanos,
+                        runNanos,
+                        outputBytes);
+            }
         }
 
-        if (!(result == null || Boolean.parseBoolean(String.valueOf(result)))) {
+        if (!successful) {
             throw new ScriptReturnException("The " + scriptDescription + " returned " + result + ".", result);
         }
     }
 
+    private void printStackTrace(Throwable failure, File scriptFile, PrintStream out) {
+        StackTracePrinter printer = this.stackTracePrinter;
+        if (printer != null) {
+            printer.print(failure, scriptFile.getPath(), out);
+        } else {
+            failure.printStackTrace(out);
+        }
+    }
+
+    /**
+     * Tells whether the specified script is evaluated in expression mode.
+     *
+     * @param script The script contents, must not be <code>null</code>.
+     * @return <code>true</code> if the script is a single line not longer than the expression limit.
+     */
+    private boolean isExpression(String script) {
+        if (script.length() > expressionMaxLength) {
+            return false;
+        }
+        String trimmed = script.trim();
+        return trimmed.indexOf('\n') < 0 && trimmed.indexOf('\r') < 0;
+    }
+
+    /**
+     * Creates the variables of a script evaluation, initialized with the global variables.
+     *
+     * @return The variables, never <code>null</code>.
+     */
+    Map<String, Object> newScriptVariables() {
+        return new HashMap<>(this.globalVariables);
+    }
+
+    private static Object evaluate(
+            ScriptInterpreter interpreter,
+            String script,
+            Map<String, ?> variables,
+            PrintStream out,
+            EvaluationOptions options,
+            EvaluationTimings timings)
+            throws ScriptEvaluationException {
+        if (interpreter instanceof PhasedScriptInterpreter) {
+            return ((PhasedScriptInterpreter) interpreter).evaluateScript(script, variables, out, options, timings);
+        }
+        return interpreter.evaluateScript(script, variables, out);
+    }
+
+    private String decode(byte[] bytes) throws IOException {
+        return decoder.decode(bytes);
+    }
+
     /**
      * Gets the effective path to the specified script. For convenience, we allow to specify a script path as "verify"
      * and have the plugin auto-append the file extension to search for "verify.bsh" and "verify.groovy".
@@ -257,7 +1241,7 @@ public class ScriptRunner implements Closeable {
      * @param scriptFile The script file for which to determine an interpreter, must not be <code>null</code>.
      * @return The script interpreter for the file, never <code>null</code>.
      */
-    private ScriptInterpreter getInterpreter(File scriptFile) {
+    ScriptInterpreter getInterpreter(File scriptFile) {
         String ext = FilenameUtils.getExtension(scriptFile.getName()).toLowerCase(Locale.ENGLISH);
         ScriptInterpreter interpreter = scriptInterpreters.get(ext);
         if (interpreter == null) {
@@ -267,15 +1251,184 @@ public class ScriptRunner implements Closeable {
     }
 
     /**
-     * Closes this script interpreter and releases any system resources associated with it.
+     * Determines the id of a built-in interpreter, which is available in worker JVMs and can be shared.
+     *
+     * @param interpreter The script interpreter, may be <code>null</code>.
+     * @return The interpreter id or <code>null</code> if the interpreter is not a built-in one.
+     */
+    private static String getBuiltInInterpreterId(ScriptInterpreter interpreter) {
+        if (interpreter instanceof GroovyScriptInterpreter) {
+            return "groovy";
+        } else if (interpreter instanceof BeanShellScriptInterpreter) {
+            return "bsh";
+        }
+        return null;
+    }
+
+    /**
+     * Waits until the evaluation of the specified script is admitted.
+     *
+     * @param interpreter The interpreter to evaluate the script, must not be <code>null</code>.
+     * @param script The script contents, must not be <code>null</code>.
+     * @return The admission to close after the evaluation or <code>null</code> if there is no admission control.
+     * @throws InterruptedIOException If the thread was interrupted while waiting.
+     */
+    private AdmissionControl.Admission admit(ScriptInterpreter interpreter, String script)
+            throws InterruptedIOException {
+        if (!admissionControlled) {
+            return null;
+        }
+        return admissionControl.admit(getInterpreterId(interpreter), AdmissionControl.getWeight(script));
+    }
+
+    /**
+     * Gets the id the specified interpreter is registered with.
+     *
+     * @param interpreter The interpreter, must not be <code>null</code>.
+     * @return The id of the interpreter or its simple class name if it is not registered, never <code>null</code>.
+     */
+    private String getInterpreterId(ScriptInterpreter interpreter) {
+        String id = getBuiltInInterpreterId(interpreter);
+        if (id != null) {
+            return id;
+        }
+        for (Map.Entry<String, ScriptInterpreter> entry : scriptInterpreters.entrySet()) {
+            if (entry.getValue() == interpreter) {
+                return entry.getKey();
+            }
+        }
+        return interpreter.getClass().getSimpleName();
+    }
+
+    private boolean isShared(ScriptInterpreter interpreter) {
+        return shareInterpreters && getBuiltInInterpreterId(interpreter) != null;
+    }
+
+    /**
+     * Leases the shared interpreter with the current configuration for one use. The runner itself leases the
+     * interpreter on first use and keeps it until its configuration changes; the returned lease keeps the interpreter
+     * open beyond that until it is closed.
+     *
+     * @param interpreterId The id of the built-in interpreter, must not be <code>null</code>.
+     * @return The lease of the shared interpreter which must be closed after use, never <code>null</code>.
+     * @throws ScriptEvaluationException If a new interpreter could not be configured.
+     */
+    private InterpreterRegistry.Lease leaseShared(String interpreterId) throws ScriptEvaluationException {
+        leasesLock.lock();
+        try {
+            InterpreterRegistry.Lease lease = leases.get(interpreterId);
+            if (lease == null) {
+                boolean groovy = "groovy".equals(interpreterId);
+                InterpreterRegistry.Key key = new InterpreterRegistry.Key(
+                        interpreterId,
+                        Thread.currentThread().getContextClassLoader(),
+                        classPath,
+                        preludes.get(interpreterId),
+                        groovy ? groovyScriptBaseClass : null,
+                        groovy ? maxEvaluationsPerLoader : 0,
+                        groovy ? maxGeneratedClassBytesPerLoader : 0);
+                lease = InterpreterRegistry.shared().lease(key, () -> newBuiltInInterpreter(interpreterId));
+                leases.put(interpreterId, lease);
+            }
+            return lease.retain();
+        } finally {
+            leasesLock.unlock();
+        }
+    }
+
+    /**
+     * Creates a built-in interpreter with the current configuration.
+     *
+     * @param interpreterId The id of the built-in interpreter, must not be <code>null</code>.
+     * @return The new interpreter, never <code>null</code>.
+     * @throws ScriptEvaluationException If the prelude of the interpreter failed.
+     */
+    private ScriptInterpreter newBuiltInInterpreter(String interpreterId) throws ScriptEvaluationException {
+        ScriptInterpreter interpreter;
+        if ("groovy".equals(interpreterId)) {
+            GroovyScriptInterpreter groovy = new GroovyScriptInterpreter();
+            groovy.setScriptBaseClass(groovyScriptBaseClass);
+            groovy.setLoaderLimits(maxEvaluationsPerLoader, maxGeneratedClassBytesPerLoader);
+            interpreter = groovy;
+        } else {
+            interpreter = new BeanShellScriptInterpreter();
+        }
+
+        try {
+            interpreter.setClassPath(classPath);
+            if (!preloadClasses.isEmpty()) {
+                interpreter.preloadClasses(preloadClasses);
+            }
+            interpreter.setPrelude(preludes.get(interpreterId));
+        } catch (ScriptEvaluationException | RuntimeException e) {
+            try {
+                interpreter.close();
+            } catch (IOException ioe) {
+                e.addSuppressed(ioe);
+            }
+            throw e;
+        }
+        return interpreter;
+    }
+
+    /**
+     * Returns the leased interpreters to the registry, e.g. because the configuration changed.
+     */
+    private void releaseLeases() {
+        leasesLock.lock();
+        try {
+            leases.values().forEach(InterpreterRegistry.Lease::close);
+            leases.clear();
+        } finally {
+            leasesLock.unlock();
+        }
+    }
+
+    /**
+     * Acquires the interpreter for an evaluation, so that it is not closed while the script runs. Shared interpreters
+     * are leased from the registry. For interpreters of this runner, the current version is acquired; if the
+     * interpreter was replaced by a new class path version, e.g. because the script was resolved before, the current
+     * interpreter for the script is used instead.
+     *
+     * @param interpreter The interpreter the script was resolved to, must not be <code>null</code>.
+     * @param scriptFile The script file, must not be <code>null</code>.
+     * @return The handle which must be closed after the evaluation, or <code>null</code> if the interpreter is not
+     *         versioned by this runner.
+     * @throws ScriptEvaluationException If a new shared interpreter could not be configured.
+     */
+    private InterpreterHandle acquireInterpreter(ScriptInterpreter interpreter, File scriptFile)
+            throws ScriptEvaluationException {
+        if (isShared(interpreter)) {
+            return leaseShared(getBuiltInInterpreterId(interpreter));
+        }
+        while (true) {
+            InterpreterVersion version = versions.get(interpreter);
+            if (version == null) {
+                ScriptInterpreter current = getInterpreter(scriptFile);
+                version = current != null ? versions.get(current) : null;
+                if (version == null) {
+                    return null;
+                }
+            }
+            if (version.tryAcquire()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Closes this script interpreter and releases any system resources associated with it. Shared interpreters are
+     * returned to the process-wide registry instead.
      *
      * @throws IOException if an I/O error occurs.
      */
     @Override
     public void close() throws IOException {
+        releaseLeases();
         for (ScriptInterpreter scriptInterpreter : scriptInterpreters.values()) {
             scriptInterpreter.close();
         }
-        scriptInterpreters.clear();
+        scriptInterpreters = new LinkedHashMap<>();
+        versions.clear();
     }
 }
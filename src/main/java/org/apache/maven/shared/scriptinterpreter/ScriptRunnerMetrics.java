@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+
+/**
+ * A snapshot of the resource usage of a {@link ScriptRunner}, meant to watch long-lived runners (e.g. in a build
+ * daemon) for class and metaspace leaks. The class generation counts cover the built-in Groovy interpreter, which
+ * compiles scripts to classes; the JVM-wide class counts and the metaspace usage cover everything.
+ *
+ * @see ScriptRunner#getMetrics()
+ * @since 1.8
+ */
+public final class ScriptRunnerMetrics {
+
+    private final long evaluations;
+
+    private final long loadersCreated;
+
+    private final long loadersRecycled;
+
+    private final long classesDefined;
+
+    private final long generatedClassBytes;
+
+    private final long loadedClassCount;
+
+    private final long unloadedClassCount;
+
+    private final long metaspaceUsed;
+
+    ScriptRunnerMetrics(long evaluations, ClassGenerationStatistics statistics) {
+        this.evaluations = evaluations;
+        this.loadersCreated = statistics.getLoadersCreated();
+        this.loadersRecycled = statistics.getLoadersRecycled();
+        this.classesDefined = statistics.getClassesDefined();
+        this.generatedClassBytes = statistics.getClassBytes();
+
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        this.loadedClassCount = classLoading.getLoadedClassCount();
+        this.unloadedClassCount = classLoading.getUnloadedClassCount();
+
+        long metaspace = -1;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                metaspace = pool.getUsage().getUsed();
+            }
+        }
+        this.metaspaceUsed = metaspace;
+    }
+
+    /**
+     * Gets the number of scripts evaluated by the runner.
+     *
+     * @return The number of evaluations.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Gets the number of class loaders created to compile scripts.
+     *
+     * @return The number of class loaders.
+     */
+    public long getLoadersCreated() {
+        return loadersCreated;
+    }
+
+    /**
+     * Gets the number of script class loaders dropped because they reached the configured limits.
+     *
+     * @return The number of recycled class loaders.
+     * @see ScriptRunner#setMaxEvaluationsPerLoader(int)
+     * @see ScriptRunner#setMaxGeneratedClassBytesPerLoader(long)
+     */
+    public long getLoadersRecycled() {
+        return loadersRecycled;
+    }
+
+    /**
+     * Gets the number of classes generated from scripts.
+     *
+     * @return The number of classes.
+     */
+    public long getClassesDefined() {
+        return classesDefined;
+    }
+
+    /**
+     * Gets the total size of the bytecode generated from scripts.
+     *
+     * @return The size in bytes.
+     */
+    public long getGeneratedClassBytes() {
+        return generatedClassBytes;
+    }
+
+    /**
+     * Gets the number of classes currently loaded in the JVM.
+     *
+     * @return The number of loaded classes.
+     */
+    public long getLoadedClassCount() {
+        return loadedClassCount;
+    }
+
+    /**
+     * Gets the number of classes unloaded by the JVM since it started.
+     *
+     * @return The number of unloaded classes.
+     */
+    public long getUnloadedClassCount() {
+        return unloadedClassCount;
+    }
+
+    /**
+     * Gets the metaspace usage of the JVM.
+     *
+     * @return The used metaspace in bytes or <code>-1</code> if the JVM does not report it.
+     */
+    public long getMetaspaceUsed() {
+        return metaspaceUsed;
+    }
+
+    @Override
+    public String toString() {
+        return "evaluations=" + evaluations + ", loadersCreated=" + loadersCreated + ", loadersRecycled="
+                + loadersRecycled + ", classesDefined=" + classesDefined + ", generatedClassBytes="
+                + generatedClassBytes + ", loadedClassCount=" + loadedClassCount + ", unloadedClassCount="
+                + unloadedClassCount + ", metaspaceUsed=" + metaspaceUsed;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sequence of hook scripts of one project evaluated in one interpreter context, opened with
+ * {@link ScriptRunner#openSession(File, Map, ExecutionLogger)}. A session is meant to be used by one thread at a time;
+ * different sessions can be used concurrently if the runner is concurrent.
+ *
+ * <p>Scripts evaluated in worker JVMs (see {@link ScriptRunner#setWorkerPool(ScriptWorkerPool)}) receive the session
+ * variables but cannot share variables they assign with later scripts.
+ *
+ * @since 1.8
+ */
+public final class ScriptSession implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptSession.class);
+
+    private final ScriptRunner runner;
+
+    private final File basedir;
+
+    private final ExecutionLogger logger;
+
+    /**
+     * The variables of the scripts, <code>null</code> once the session is closed.
+     */
+    private Map<String, Object> variables;
+
+    /**
+     * The listings of the script directories indexed by directory, dropped whenever a script ran since it may have
+     * created files.
+     */
+    private final Map<Path, Set<String>> listings = new HashMap<>();
+
+    private boolean shareVariables;
+
+    ScriptSession(ScriptRunner runner, File basedir, Map<String, ?> context, ExecutionLogger logger) {
+        this.runner = runner;
+        this.basedir = basedir;
+        this.logger = logger;
+        this.variables = runner.newScriptVariables();
+        this.variables.put("context", context);
+    }
+
+    /**
+     * Sets whether the top-level variables assigned by a script (like <code>foo = 'bar'</code>) are visible to the
+     * later scripts of this session. By default, each script starts with the session variables only.
+     *
+     * @param shareVariables <code>true</code> to share assigned variables, <code>false</code> otherwise.
+     */
+    public void setShareVariables(boolean shareVariables) {
+        this.shareVariables = shareVariables;
+    }
+
+    /**
+     * Sets a variable for all later scripts of this session, overriding a global variable of the same name.
+     *
+     * @param name The name of the variable, must not be <code>null</code>.
+     * @param value The value of the variable, may be <code>null</code>.
+     */
+    public void setVariable(String name, Object value) {
+        variables().put(name, value);
+    }
+
+    /**
+     * Gets a variable of this session, including variables shared by previous scripts.
+     *
+     * @param name The name of the variable, must not be <code>null</code>.
+     * @return The value of the variable or <code>null</code> if undefined.
+     */
+    public Object getVariable(String name) {
+        return variables().get(name);
+    }
+
+    /**
+     * Runs the specified hook script (after resolution) of the project.
+     *
+     * @param scriptDescription The description of the script to use for logging, must not be <code>null</code>.
+     * @param relativeScriptPath The path to the script relative to the project base directory, may be <code>null</code>
+     *            to skip the script execution and may not have extensions (resolution will search).
+     * @return <code>true</code> if the script was found and run, <code>false</code> if there is no such script.
+     * @throws IOException If an I/O error occurred while reading the script file.
+     * @throws ScriptException If the script did not return <code>true</code> of threw an exception.
+     * @see ScriptRunner#run(String, File, String, Map, ExecutionLogger)
+     */
+    public boolean run(String scriptDescription, String relativeScriptPath) throws IOException, ScriptException {
+        variables();
+        if (relativeScriptPath == null) {
+            LOG.debug("{}: relativeScriptPath is null, not executing script", scriptDescription);
+            return false;
+        }
+
+        File scriptFile = new File(basedir, relativeScriptPath);
+        Path directory = scriptFile.getAbsoluteFile().toPath().getParent();
+        ScriptEvents.Event event = ScriptEvents.RESOLVED.begin();
+        File resolved;
+        try {
+            resolved = directory != null
+                    ? runner.resolveScript(
+                            scriptFile, listings.computeIfAbsent(directory, dir -> ScriptRunner.listDirectory(dir, "")))
+                    : null;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        event.commit(resolved != null ? resolved.getPath() : scriptFile.getPath(), resolved != null);
+
+        if (resolved == null) {
+            LOG.debug(
+                    "{} : no script '{}' found in directory {}",
+                    scriptDescription,
+                    relativeScriptPath,
+                    basedir.getAbsolutePath());
+            return false;
+        }
+        run(scriptDescription, resolved);
+        return true;
+    }
+
+    /**
+     * Runs the specified hook script.
+     *
+     * @param scriptDescription The description of the script to use for logging, must not be <code>null</code>.
+     * @param scriptFile The path to the script, must not be <code>null</code>.
+     * @throws IOException If an I/O error occurred while reading the script file.
+     * @throws ScriptException If the script did not return <code>true</code> of threw an exception.
+     */
+    public void run(String scriptDescription, File scriptFile) throws IOException, ScriptException {
+        Map<String, Object> current = variables();
+        listings.clear();
+        runner.executeRun(
+                scriptDescription,
+                scriptFile,
+                runner.getInterpreter(scriptFile),
+                shareVariables ? current : new HashMap<>(current),
+                shareVariables,
+                logger);
+    }
+
+    private Map<String, Object> variables() {
+        if (variables == null) {
+            throw new IllegalStateException("Script session already closed");
+        }
+        return variables;
+    }
+
+    /**
+     * Closes this session and drops its variables. The runner stays open.
+     */
+    @Override
+    public void close() {
+        variables = null;
+        listings.clear();
+    }
+}
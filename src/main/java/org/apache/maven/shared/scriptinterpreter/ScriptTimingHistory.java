@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small persistent store of script durations, keyed by script path and content hash. It lets batch executions start
+ * the scripts which took longest before, so long scripts do not start last and stretch the wall-clock time of a build.
+ *
+ * <p>Each script keeps one entry. Durations of unchanged scripts are smoothed over their runs, while a changed script
+ * starts over with its latest duration. The store is a plain text file with one script per line, which is written by
+ * {@link #save()}.
+ *
+ * @see ScriptRunner#setTimingHistory(ScriptTimingHistory)
+ * @since 1.8
+ */
+public final class ScriptTimingHistory {
+
+    private final File file;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The entries indexed by script path, guarded by {@link #lock}.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private boolean modified;
+
+    private ScriptTimingHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the history from the specified file. A missing file yields an empty history, unreadable lines are skipped.
+     *
+     * @param file The file to load the history from and to save it to, must not be <code>null</code>.
+     * @return The history, never <code>null</code>.
+     * @throws IOException If the file could not be read.
+     */
+    public static ScriptTimingHistory load(File file) throws IOException {
+        ScriptTimingHistory history = new ScriptTimingHistory(file);
+        if (!file.isFile()) {
+            return history;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+                try {
+                    history.entries.put(fields[2], new Entry(fields[1], Long.parseLong(fields[0])));
+                } catch (NumberFormatException e) {
+                    // skip, the entry will be recorded again
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Gets the file the history is stored in.
+     *
+     * @return The file, never <code>null</code>.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Records the duration of a script run.
+     *
+     * @param scriptFile The script file, must not be <code>null</code>.
+     * @param contentHash The hash of the script contents as computed by {@link #hash(byte[])}, must not be
+     *            <code>null</code>.
+     * @param nanos The duration of the run in nanoseconds.
+     */
+    public void record(File scriptFile, String contentHash, long nanos) {
+        String key = scriptFile.getAbsolutePath();
+        lock.lock();
+        try {
+            Entry previous = entries.get(key);
+            long smoothed =
+                    previous != null && previous.contentHash.equals(contentHash) ? (previous.nanos + nanos) / 2 : nanos;
+            entries.put(key, new Entry(contentHash, smoothed));
+            modified = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the recorded duration of the specified script.
+     *
+     * @param scriptFile The script file, must not be <code>null</code>.
+     * @param contentHash The hash of the current script contents, may be <code>null</code> to accept a duration
+     *            recorded for any contents.
+     * @return The duration in nanoseconds or <code>-1</code> if the script has no duration recorded for its contents.
+     */
+    public long getDuration(File scriptFile, String contentHash) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(scriptFile.getAbsolutePath());
+            if (entry == null || (contentHash != null && !entry.contentHash.equals(contentHash))) {
+                return -1;
+            }
+            return entry.nanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the history to its file if it changed since it was loaded or last saved. The file is replaced
+     * atomically where the file system supports it.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    public void save() throws IOException {
+        StringBuilder text = new StringBuilder();
+        lock.lock();
+        try {
+            if (!modified) {
+                return;
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                text.append(entry.getValue().nanos)
+                        .append('\t')
+                        .append(entry.getValue().contentHash)
+                        .append('\t')
+                        .append(entry.getKey())
+                        .append('\n');
+            }
+            modified = false;
+        } finally {
+            lock.unlock();
+        }
+
+        Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(text.toString());
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Computes the content hash of a script.
+     *
+     * @param contents The raw script contents, must not be <code>null</code>.
+     * @return The hexadecimal SHA-256 hash of the contents, never <code>null</code>.
+     */
+    public static String hash(byte[] contents) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String contentHash;
+
+        private final long nanos;
+
+        Entry(String contentHash, long nanos) {
+            this.contentHash = contentHash;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The main class of the worker JVMs started by {@link ScriptWorkerPool}. A worker reads the port and the secret of its
+ * pool from its standard input, connects to the pool through the loopback interface and then reads evaluation requests
+ * from that connection and writes the responses back to it until the connection is closed. The standard streams of
+ * the worker are not part of the protocol, so anything a script or native code prints there cannot corrupt it.
+ *
+ * <p>Each request consists of the interpreter id, the class path, the prelude scripts, the Groovy
+ * script base class, the script and its variables. The output of the script is sent in {@link #OUTPUT_FRAME}s while
+ * the script runs, so it is neither held in memory by the worker nor lost if the worker is killed. The response ends
+ * with a {@link #RESULT_FRAME}: a flag whether the evaluation succeeded and either the result (as string and, if
+ * possible, in serialized form) or the failure (class name, message and stack trace) followed by a flag whether the
+ * worker should be recycled.
+ */
+final class ScriptWorker {
+
+    /**
+     * Marks a frame of script output, followed by its length and its bytes.
+     */
+    static final byte OUTPUT_FRAME = 1;
+
+    /**
+     * Marks the end of the script output, followed by the result of the evaluation.
+     */
+    static final byte RESULT_FRAME = 2;
+
+    /**
+     * The amount of script output which is sent as soon as it is complete.
+     */
+    private static final int FRAME_SIZE = 8192;
+
+    /**
+     * The interval in milliseconds at which incomplete frames of script output are sent.
+     */
+    private static final long FLUSH_INTERVAL = 100;
+
+    private ScriptWorker() {
+        // main class
+    }
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream handshake = new DataInputStream(System.in);
+        int port = handshake.readInt();
+        String secret = handshake.readUTF();
+        System.setOut(System.err);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(secret);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            serve(in, out);
+        }
+    }
+
+    private static void serve(ObjectInputStream in, ObjectOutputStream out) throws IOException {
+        OutputFrames frames = new OutputFrames(out);
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "script-output-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(frames::flushQuietly, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        List<String> classPath = null;
+        Map<String, String> preludes = null;
+        String groovyScriptBaseClass = null;
+        Map<String, ScriptInterpreter> interpreters = null;
+        try {
+            while (true) {
+                String interpreterId;
+                List<String> requestClassPath;
+                Map<String, String> requestPreludes;
+                String requestGroovyScriptBaseClass;
+                String script;
+                Map<String, Object> variables;
+                try {
+                    interpreterId = (String) in.readObject();
+                    requestClassPath = readList(in);
+                    requestPreludes = readMap(in);
+                    requestGroovyScriptBaseClass = (String) in.readObject();
+                    script = (String) in.readObject();
+                    variables = readMap(in);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // not closed, that would close the frames
+                PrintStream scriptOutput = new PrintStream(frames);
+                Object result = null;
+                Throwable failure = null;
+                try {
+                    if (interpreters == null
+                            || !requestClassPath.equals(classPath)
+                            || !requestPreludes.equals(preludes)
+                            || !Objects.equals(requestGroovyScriptBaseClass, groovyScriptBaseClass)) {
+                        closeAll(interpreters);
+                        interpreters = null;
+                        interpreters =
+                                createInterpreters(requestClassPath, requestPreludes, requestGroovyScriptBaseClass);
+                        classPath = requestClassPath;
+                        preludes = requestPreludes;
+                        groovyScriptBaseClass = requestGroovyScriptBaseClass;
+                    }
+
+                    ScriptInterpreter interpreter = interpreters.getOrDefault(interpreterId, interpreters.get("bsh"));
+                    result = interpreter.evaluateScript(script, variables, scriptOutput);
+                } catch (ScriptEvaluationException e) {
+                    failure = e.getCause() != null ? e.getCause() : e;
+                }
+                scriptOutput.flush();
+
+                frames.lock.lock();
+                try {
+                    frames.send();
+                    out.writeByte(RESULT_FRAME);
+                    out.writeBoolean(failure == null);
+                    if (failure == null) {
+                        out.writeObject(String.valueOf(result));
+                        out.writeObject(serialize(result));
+                    } else {
+                        out.writeObject(failure.getClass().getName());
+                        out.writeObject(failure.getMessage());
+                        out.writeObject(failure.getStackTrace());
+                        out.writeBoolean(failure instanceof Error && !(failure instanceof AssertionError));
+                    }
+                    out.flush();
+                    out.reset();
+                } finally {
+                    frames.lock.unlock();
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Malformed request", e);
+        } finally {
+            flusher.shutdownNow();
+            closeAll(interpreters);
+        }
+    }
+
+    private static Map<String, ScriptInterpreter> createInterpreters(
+            List<String> classPath, Map<String, String> preludes, String groovyScriptBaseClass)
+            throws IOException, ScriptEvaluationException {
+        GroovyScriptInterpreter groovy = new GroovyScriptInterpreter();
+        groovy.setScriptBaseClass(groovyScriptBaseClass);
+
+        Map<String, ScriptInterpreter> interpreters = new HashMap<>();
+        interpreters.put("bsh", new BeanShellScriptInterpreter());
+        interpreters.put("groovy", groovy);
+        try {
+            for (ScriptInterpreter interpreter : interpreters.values()) {
+                interpreter.setClassPath(classPath);
+            }
+            for (Map.Entry<String, String> prelude : preludes.entrySet()) {
+                ScriptInterpreter interpreter = interpreters.get(prelude.getKey());
+                if (interpreter != null) {
+                    interpreter.setPrelude(prelude.getValue());
+                }
+            }
+        } catch (ScriptEvaluationException | RuntimeException e) {
+            closeAll(interpreters);
+            throw e;
+        }
+        return interpreters;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> readList(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        return (List<String>) in.readObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Map<String, V> readMap(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        return (Map<String, V>) in.readObject();
+    }
+
+    private static void closeAll(Map<String, ScriptInterpreter> interpreters) throws IOException {
+        if (interpreters != null) {
+            for (ScriptInterpreter interpreter : interpreters.values()) {
+                interpreter.close();
+            }
+        }
+    }
+
+    /**
+     * Serializes the specified object.
+     *
+     * @param object The object to serialize, may be <code>null</code>.
+     * @return The serialized form or <code>null</code> if the object is <code>null</code> or not serializable.
+     */
+    static byte[] serialize(Object object) {
+        if (!(object instanceof Serializable)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copies the serializable entries of the specified variables, dropping all others.
+     *
+     * @param variables The variables to copy, may be <code>null</code>.
+     * @return The serializable variables, never <code>null</code>.
+     */
+    static HashMap<String, Object> serializableCopy(Map<String, ?> variables) {
+        HashMap<String, Object> copy = new HashMap<>();
+        if (variables == null) {
+            return copy;
+        }
+        for (Map.Entry<String, ?> entry : variables.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null || serialize(value) != null) {
+                copy.put(entry.getKey(), value);
+            }
+        }
+        return copy;
+    }
+
+    static ArrayList<String> copyOf(List<String> classPath) {
+        return classPath != null ? new ArrayList<>(classPath) : new ArrayList<>();
+    }
+
+    /**
+     * Sends the script output to the pool in frames. Complete frames are sent right away, incomplete ones by the
+     * flusher thread, so the output of a script which never finishes still reaches the pool.
+     */
+    private static final class OutputFrames extends OutputStream {
+
+        private final ObjectOutputStream out;
+
+        /**
+         * Guards all writes to the connection, which are done by the evaluating and the flusher thread.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final byte[] buffer = new byte[FRAME_SIZE];
+
+        private int count;
+
+        OutputFrames(ObjectOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            lock.lock();
+            try {
+                if (count == buffer.length) {
+                    send();
+                }
+                buffer[count++] = (byte) b;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    if (count == buffer.length) {
+                        send();
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                send();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                // the connection is gone, which the evaluating thread notices on its next write
+            }
+        }
+
+        /**
+         * Sends the buffered output as a frame, must be called with the lock held.
+         */
+        void send() throws IOException {
+            if (count > 0) {
+                out.writeByte(OUTPUT_FRAME);
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                out.flush();
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,583 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bsh.Interpreter;
+import groovy.lang.GroovyShell;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of local worker JVMs evaluating scripts out of process. Scripts evaluated by a worker cannot affect the
+ * JVM-global state of the calling process (system streams, context class loader, static fields), while the workers
+ * are reused across scripts to avoid paying a JVM startup per script. A worker is recycled after it failed with an
+ * {@link Error} or lost its connection, and optionally after a number of evaluations. A worker exceeding the
+ * evaluation timeout is killed, the next evaluation starts a fresh one in its place.
+ *
+ * <p>Requests and responses are exchanged through a loopback connection which the worker opens to its pool, so output
+ * written to the standard streams of a worker, even by native code, cannot corrupt the protocol.
+ *
+ * <p>Only serializable variables are passed to the workers, the others are dropped with a warning. Changes a script
+ * makes to the <code>context</code> are not visible to the caller. The output of a script is streamed to the caller
+ * while the script runs. Script results are passed back in serialized form if possible and as their string
+ * representation otherwise.
+ *
+ * @see ScriptRunner#setWorkerPool(ScriptWorkerPool)
+ * @since 1.8
+ */
+public class ScriptWorkerPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptWorkerPool.class);
+
+    /**
+     * The interval in milliseconds at which a starting worker is checked for having died before it connected.
+     */
+    private static final int CONNECT_POLL_INTERVAL = 500;
+
+    /**
+     * The time in milliseconds a starting worker has to connect to its pool.
+     */
+    private static final long CONNECT_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private final int size;
+
+    private final LinkedBlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private final List<Worker> all = new ArrayList<>();
+
+    private int starting;
+
+    private String javaExecutable = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    private List<String> jvmArguments = Collections.emptyList();
+
+    private int maxEvaluationsPerWorker;
+
+    private int evaluationTimeout;
+
+    private boolean closed;
+
+    /**
+     * Creates a new pool which starts up to the given number of worker JVMs on demand.
+     *
+     * @param size The maximum number of worker JVMs, must be positive.
+     */
+    public ScriptWorkerPool(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Sets the Java executable used to start the workers, defaults to the one of the current JVM.
+     *
+     * @param javaExecutable The path to the Java executable, must not be <code>null</code>.
+     */
+    public void setJavaExecutable(String javaExecutable) {
+        this.javaExecutable = javaExecutable;
+    }
+
+    /**
+     * Sets additional arguments for the worker JVMs, e.g. heap settings.
+     *
+     * @param jvmArguments The JVM arguments, may be <code>null</code>.
+     */
+    public void setJvmArguments(List<String> jvmArguments) {
+        this.jvmArguments = jvmArguments != null ? new ArrayList<>(jvmArguments) : Collections.emptyList();
+    }
+
+    /**
+     * Sets the number of evaluations after which a worker is replaced by a fresh one.
+     *
+     * @param maxEvaluationsPerWorker The number of evaluations, <code>0</code> to reuse workers indefinitely.
+     */
+    public void setMaxEvaluationsPerWorker(int maxEvaluationsPerWorker) {
+        this.maxEvaluationsPerWorker = maxEvaluationsPerWorker;
+    }
+
+    /**
+     * Sets the time an evaluation may take before its worker is killed and the evaluation fails.
+     *
+     * @param evaluationTimeout The timeout in milliseconds, <code>0</code> to wait indefinitely.
+     */
+    public void setEvaluationTimeout(int evaluationTimeout) {
+        if (evaluationTimeout < 0) {
+            throw new IllegalArgumentException("evaluationTimeout must not be negative: " + evaluationTimeout);
+        }
+        this.evaluationTimeout = evaluationTimeout;
+    }
+
+    /**
+     * Starts all workers up front so the first scripts do not have to wait for a JVM startup.
+     *
+     * @throws IOException If a worker could not be started.
+     */
+    public void prestart() throws IOException {
+        List<Worker> started = new ArrayList<>();
+        try {
+            Worker worker;
+            while ((worker = tryCreate()) != null) {
+                started.add(worker);
+            }
+        } finally {
+            started.forEach(this::release);
+        }
+    }
+
+    /**
+     * Evaluates the specified script in a worker.
+     *
+     * @param interpreterId The id of the interpreter to use, <code>bsh</code> or <code>groovy</code>.
+     * @param script The script contents to evaluate, must not be <code>null</code>.
+     * @param classPath The additional class path for the script, may be <code>null</code>.
+     * @param preludes The prelude scripts indexed by interpreter id, may be <code>null</code>.
+     * @param groovyScriptBaseClass The base class of Groovy scripts, may be <code>null</code>.
+     * @param variables The global variables for the script, non-serializable values are dropped.
+     * @param scriptOutput The stream to copy the script output to, may be <code>null</code> to use stdout.
+     * @return The return value from the script, can be <code>null</code>.
+     * @throws IOException If the communication with the worker failed.
+     * @throws ScriptEvaluationException If the script evaluation produced an error or timed out.
+     */
+    Object evaluate(
+            String interpreterId,
+            String script,
+            List<String> classPath,
+            Map<String, String> preludes,
+            String groovyScriptBaseClass,
+            Map<String, ?> variables,
+            PrintStream scriptOutput)
+            throws IOException, ScriptEvaluationException {
+        Worker worker = acquire();
+        boolean recycle = true;
+        try {
+            worker.connect();
+            worker.out.writeObject(interpreterId);
+            worker.out.writeObject(ScriptWorker.copyOf(classPath));
+            worker.out.writeObject(preludes != null ? new HashMap<>(preludes) : new HashMap<>());
+            worker.out.writeObject(groovyScriptBaseClass);
+            worker.out.writeObject(script);
+            worker.out.writeObject(serializableCopy(variables));
+            worker.out.flush();
+            worker.out.reset();
+
+            ObjectInputStream in = worker.in;
+            PrintStream target = scriptOutput != null ? scriptOutput : System.out;
+            try {
+                copyOutput(worker, target);
+            } catch (SocketTimeoutException e) {
+                worker.kill();
+                throw new ScriptEvaluationException(new TimeoutException(
+                        "Script evaluation in worker timed out after " + evaluationTimeout + " ms"));
+            } finally {
+                target.flush();
+            }
+
+            worker.evaluations++;
+            if (in.readBoolean()) {
+                String text = (String) in.readObject();
+                byte[] serialized = (byte[]) in.readObject();
+                recycle = false;
+                return deserialize(serialized, text);
+            } else {
+                String className = (String) in.readObject();
+                String message = (String) in.readObject();
+                StackTraceElement[] stackTrace = (StackTraceElement[]) in.readObject();
+                recycle = in.readBoolean();
+
+                ScriptWorkerException failure = new ScriptWorkerException(className, message);
+                failure.setStackTrace(stackTrace);
+                throw new ScriptEvaluationException(failure);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Malformed response from script worker", e);
+        } finally {
+            if (recycle || (maxEvaluationsPerWorker > 0 && worker.evaluations >= maxEvaluationsPerWorker)) {
+                discard(worker);
+            } else {
+                release(worker);
+            }
+        }
+    }
+
+    /**
+     * Copies the output frames of the current evaluation to the specified stream, until the result frame arrives.
+     *
+     * @throws SocketTimeoutException If the evaluation timeout elapsed first.
+     */
+    private void copyOutput(Worker worker, PrintStream target) throws IOException {
+        long deadline = evaluationTimeout > 0 ? System.currentTimeMillis() + evaluationTimeout : 0;
+        byte[] buffer = worker.outputBuffer;
+        while (true) {
+            int timeout = 0;
+            if (deadline > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                timeout = (int) remaining;
+            }
+            worker.socket.setSoTimeout(timeout);
+
+            byte frame = worker.in.readByte();
+            if (frame == ScriptWorker.RESULT_FRAME) {
+                worker.socket.setSoTimeout(0);
+                return;
+            }
+            if (frame != ScriptWorker.OUTPUT_FRAME) {
+                throw new IOException("Malformed response from script worker");
+            }
+            int length = worker.in.readInt();
+            if (buffer.length < length) {
+                buffer = new byte[length];
+                worker.outputBuffer = buffer;
+            }
+            worker.in.readFully(buffer, 0, length);
+            target.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Copies the serializable variables, warning about the dropped ones so that a script missing e.g. its
+     * <code>context</code> can be explained.
+     */
+    private static HashMap<String, Object> serializableCopy(Map<String, ?> variables) {
+        HashMap<String, Object> copy = ScriptWorker.serializableCopy(variables);
+        if (variables != null && copy.size() < variables.size()) {
+            Set<String> dropped = new TreeSet<>(variables.keySet());
+            dropped.removeAll(copy.keySet());
+            LOG.warn("Not passing the variables {} to the script worker, they are not serializable", dropped);
+        }
+        return copy;
+    }
+
+    /**
+     * Stops all workers.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            all.forEach(Worker::destroy);
+            all.clear();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Worker acquire() throws IOException {
+        while (true) {
+            Worker worker = idle.pollFirst();
+            if (worker != null) {
+                if (worker.process.isAlive()) {
+                    return worker;
+                }
+                discard(worker);
+                continue;
+            }
+
+            worker = tryCreate();
+            if (worker != null) {
+                return worker;
+            }
+
+            lock.lock();
+            try {
+                while (idle.isEmpty() && all.size() + starting >= size && !closed) {
+                    available.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a script worker");
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Worker tryCreate() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Script worker pool already closed");
+            }
+            if (all.size() + starting >= size) {
+                return null;
+            }
+            starting++;
+        } finally {
+            lock.unlock();
+        }
+
+        Worker worker = null;
+        try {
+            worker = start();
+            return worker;
+        } finally {
+            lock.lock();
+            try {
+                starting--;
+                if (worker != null) {
+                    all.add(worker);
+                }
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void release(Worker worker) {
+        lock.lock();
+        try {
+            if (closed) {
+                worker.destroy();
+            } else {
+                idle.addFirst(worker);
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discard(Worker worker) {
+        lock.lock();
+        try {
+            all.remove(worker);
+            worker.destroy();
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Worker start() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable);
+        command.addAll(jvmArguments);
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, workerClassPath()));
+        command.add(ScriptWorker.class.getName());
+
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+
+            // the secret authenticates the worker, it is passed on stdin as the command line is visible to others
+            String secret = UUID.randomUUID().toString();
+            try (DataOutputStream handshake = new DataOutputStream(process.getOutputStream())) {
+                handshake.writeInt(server.getLocalPort());
+                handshake.writeUTF(secret);
+            }
+            return new Worker(process, server, secret);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            throw e;
+        }
+    }
+
+    private static Set<String> workerClassPath() throws IOException {
+        Set<String> classPath = new LinkedHashSet<>();
+        for (Class<?> type :
+                new Class<?>[] {ScriptWorker.class, GroovyShell.class, Interpreter.class, LoggerFactory.class}) {
+            CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            if (codeSource == null || codeSource.getLocation() == null) {
+                throw new IOException("Cannot determine the location of " + type.getName());
+            }
+            try {
+                classPath.add(new File(codeSource.getLocation().toURI()).getPath());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new IOException("Cannot determine the location of " + type.getName(), e);
+            }
+        }
+        return classPath;
+    }
+
+    private static Object deserialize(byte[] serialized, String text) {
+        if (serialized == null) {
+            return "null".equals(text) ? null : text;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            return text;
+        }
+    }
+
+    private static final class Worker {
+
+        private final Process process;
+
+        private final ServerSocket server;
+
+        private final String secret;
+
+        private Socket socket;
+
+        private ObjectOutputStream out;
+
+        private ObjectInputStream in;
+
+        /**
+         * The buffer to copy the frames of script output with.
+         */
+        private byte[] outputBuffer = new byte[8192];
+
+        private int evaluations;
+
+        Worker(Process process, ServerSocket server, String secret) {
+            this.process = process;
+            this.server = server;
+            this.secret = secret;
+        }
+
+        /**
+         * Accepts the connection of the worker on first use, which waits for the worker JVM to be up.
+         */
+        void connect() throws IOException {
+            if (socket != null) {
+                return;
+            }
+            try {
+                server.setSoTimeout(CONNECT_POLL_INTERVAL);
+                long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+                Socket accepted = null;
+                while (accepted == null) {
+                    try {
+                        accepted = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (!process.isAlive()) {
+                            throw new IOException("Script worker exited with code " + process.exitValue());
+                        }
+                        if (System.currentTimeMillis() > deadline) {
+                            throw new IOException("Script worker did not connect within " + CONNECT_TIMEOUT + " ms");
+                        }
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedIOException("Interrupted while waiting for a script worker");
+                        }
+                    }
+                }
+                socket = accepted;
+            } finally {
+                server.close();
+            }
+
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout((int) CONNECT_TIMEOUT);
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (!secret.equals(in.readUTF())) {
+                throw new IOException("Unexpected connection to script worker pool");
+            }
+        }
+
+        /**
+         * Kills the worker JVM, e.g. because a script does not terminate.
+         */
+        void kill() {
+            process.destroyForcibly();
+        }
+
+        void destroy() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                } else {
+                    server.close();
+                }
+            } catch (IOException e) {
+                // ignore, the process is going away anyway
+            }
+            process.destroy();
+        }
+    }
+
+    /**
+     * Represents an exception thrown by a script in a worker JVM, carrying the original class name, message and stack
+     * trace.
+     */
+    public static class ScriptWorkerException extends Exception {
+
+        private static final long serialVersionUID = -2613185071287466380L;
+
+        private final String remoteClassName;
+
+        ScriptWorkerException(String remoteClassName, String message) {
+            super(message != null ? remoteClassName + ": " + message : remoteClassName);
+            this.remoteClassName = remoteClassName;
+        }
+
+        /**
+         * Gets the class name of the exception thrown in the worker.
+         *
+         * @return The class name, never <code>null</code>.
+         */
+        public String getRemoteClassName() {
+            return remoteClassName;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single append-only file shared by many {@link FileLogger}s. Every logger writes its own segment, which is
+ * appended to the shared file in chunks, and the location of each chunk is recorded in an index file next to it
+ * (<code>&lt;file&gt;.idx</code>). This keeps the number of files and open file handles constant no matter how many
+ * scripts are executed.
+ *
+ * <p>Segments are named after the path passed to the logger, relative to the base directory if possible (the directory
+ * of the shared file unless specified otherwise). Use {@link #readSegment(String)} to read a segment back. Like a plain
+ * log file, a segment is truncated when a logger for the same path is created again: the index records the start of
+ * each new generation of a segment and only the chunks of the latest generation are read back.
+ *
+ * @since 1.8
+ */
+public class SegmentedLogFile implements FileLoggerOutputFactory, Closeable {
+
+    /**
+     * The amount of buffered segment data which triggers appending a chunk to the shared file.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The offset of the index entries which start a new generation of a segment, discarding its previous chunks.
+     */
+    private static final long GENERATION_MARKER = -1;
+
+    private final Path dataPath;
+
+    private final Path indexPath;
+
+    private final Path baseDirectory;
+
+    private final FileChannel data;
+
+    private final Writer index;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The chunks of all known segments as <code>[offset, length]</code> pairs, in order of appearance.
+     */
+    private final Map<String, List<long[]>> segments = new LinkedHashMap<>();
+
+    /**
+     * Opens the specified shared log file, appending to it if it already exists. Segments are named relative to the
+     * directory of the shared file.
+     *
+     * @param file The path to the shared log file, must not be <code>null</code>.
+     * @throws IOException If the file or its index could not be opened.
+     */
+    public SegmentedLogFile(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Opens the specified shared log file, appending to it if it already exists.
+     *
+     * @param file The path to the shared log file, must not be <code>null</code>.
+     * @param baseDirectory The directory the segment names are relative to, may be <code>null</code> to use the
+     *            directory of the shared file.
+     * @throws IOException If the file or its index could not be opened.
+     */
+    public SegmentedLogFile(File file, File baseDirectory) throws IOException {
+        dataPath = file.toPath().toAbsolutePath();
+        this.baseDirectory = baseDirectory != null ? baseDirectory.toPath().toAbsolutePath() : dataPath.getParent();
+        indexPath = dataPath.resolveSibling(dataPath.getFileName() + ".idx");
+        Files.createDirectories(dataPath.getParent());
+
+        if (Files.exists(indexPath)) {
+            readIndex();
+        }
+
+        data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        data.position(data.size());
+        index = Files.newBufferedWriter(
+                indexPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Gets the path to the shared log file.
+     *
+     * @return The path to the shared log file, never <code>null</code>.
+     */
+    public File getFile() {
+        return dataPath.toFile();
+    }
+
+    /**
+     * Creates a new segment for the specified log file, replacing any previous segment of the same name once the
+     * first chunk is appended. Data written to the returned stream is buffered and appended to the shared file in
+     * chunks; flushing the stream does not force a chunk to be written, closing it does.
+     *
+     * @param outputPath The path to the log file, used to name the segment.
+     * @return The output stream of the segment, never <code>null</code>.
+     */
+    @Override
+    public OutputStream createOutputStream(Path outputPath) {
+        return new SegmentOutputStream(segmentName(outputPath));
+    }
+
+    /**
+     * Gets the names of all segments written to the shared log file so far.
+     *
+     * @return The segment names in the order their latest generation was started, never <code>null</code>.
+     */
+    public List<String> getSegmentNames() {
+        lock.lock();
+        try {
+            return new ArrayList<>(segments.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the complete content of a segment.
+     *
+     * @param name The name of the segment, must not be <code>null</code>.
+     * @return The content of the segment or <code>null</code> if no such segment exists.
+     * @throws IOException If the shared log file could not be read.
+     */
+    public byte[] readSegment(String name) throws IOException {
+        lock.lock();
+        try {
+            List<long[]> chunks = segments.get(name);
+            if (chunks == null) {
+                return null;
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (long[] chunk : chunks) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) chunk[1]);
+                long position = chunk[0];
+                while (buffer.hasRemaining()) {
+                    int read = data.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Truncated segment " + name + " in " + dataPath);
+                    }
+                    position += read;
+                }
+                content.write(buffer.array(), 0, buffer.position());
+            }
+            return content.toByteArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the shared log file and its index. Segments still open at this point lose their buffered data.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            try {
+                index.close();
+            } finally {
+                data.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendChunk(String name, byte[] bytes, int length, boolean newGeneration) throws IOException {
+        lock.lock();
+        try {
+            if (newGeneration) {
+                index.write(GENERATION_MARKER + "\t0\t" + name + "\n");
+                segments.remove(name);
+                segments.put(name, new ArrayList<>());
+            }
+            if (length <= 0) {
+                index.flush();
+                return;
+            }
+
+            long offset = data.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += data.write(buffer, position);
+            }
+
+            index.write(offset + "\t" + length + "\t" + name + "\n");
+            index.flush();
+
+            segments.computeIfAbsent(name, k -> new ArrayList<>()).add(new long[] {offset, length});
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String segmentName(Path outputPath) {
+        Path path = outputPath.toAbsolutePath();
+        if (path.startsWith(baseDirectory)) {
+            path = baseDirectory.relativize(path);
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    private void readIndex() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) {
+                    throw new IOException("Corrupt index entry '" + line + "' in " + indexPath);
+                }
+                long offset = Long.parseLong(fields[0]);
+                if (offset == GENERATION_MARKER) {
+                    segments.remove(fields[2]);
+                    segments.put(fields[2], new ArrayList<>());
+                } else {
+                    segments.computeIfAbsent(fields[2], k -> new ArrayList<>())
+                            .add(new long[] {offset, Long.parseLong(fields[1])});
+                }
+            }
+        }
+    }
+
+    private class SegmentOutputStream extends OutputStream {
+
+        private final String name;
+
+        private byte[] buffer = new byte[8192];
+
+        private int count;
+
+        private boolean closed;
+
+        /**
+         * Whether a chunk has been appended, the first one starts a new generation of the segment.
+         */
+        private boolean appended;
+
+        SegmentOutputStream(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+            appendIfFull();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+            appendIfFull();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (count > 0 || !appended) {
+                    append();
+                }
+                buffer = null;
+            }
+        }
+
+        private void ensureCapacity(int len) throws IOException {
+            if (closed) {
+                throw new IOException("Segment " + name + " already closed");
+            }
+            if (count + len > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, count + len)];
+                System.arraycopy(buffer, 0, grown, 0, count);
+                buffer = grown;
+            }
+        }
+
+        private void appendIfFull() throws IOException {
+            if (count >= CHUNK_SIZE) {
+                append();
+            }
+        }
+
+        private void append() throws IOException {
+            appendChunk(name, buffer, count, !appended);
+            appended = true;
+            count = 0;
+        }
+    }
+}
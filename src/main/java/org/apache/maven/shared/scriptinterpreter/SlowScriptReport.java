@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collects the costs of script evaluations and reports the most expensive scripts by compile time, run time and
+ * output volume. Only the top entries of each ranking are retained, so the report has a fixed size no matter how many
+ * scripts are evaluated.
+ */
+final class SlowScriptReport {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The number of recorded evaluations, guarded by {@link #lock}.
+     */
+    private int evaluations;
+
+    private final Ranking compileRanking;
+
+    private final Ranking runRanking;
+
+    private final Ranking outputRanking;
+
+    /**
+     * Creates a new report.
+     *
+     * @param size The number of scripts to list per ranking, must be positive.
+     */
+    SlowScriptReport(int size) {
+        this.compileRanking = new Ranking(size, Entry::getCompileNanos);
+        this.runRanking = new Ranking(size, Entry::getRunNanos);
+        this.outputRanking = new Ranking(size, Entry::getOutputBytes);
+    }
+
+    void record(Entry entry) {
+        lock.lock();
+        try {
+            evaluations++;
+            compileRanking.offer(entry);
+            runRanking.offer(entry);
+            outputRanking.offer(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getEvaluations() {
+        lock.lock();
+        try {
+            return evaluations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the most expensive evaluations of the given ranking.
+     *
+     * @param ranking The ranking, must not be <code>null</code>.
+     * @return The top entries, most expensive first, never <code>null</code>.
+     */
+    private List<Entry> top(Ranking ranking) {
+        List<Entry> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(ranking.heap);
+        } finally {
+            lock.unlock();
+        }
+        snapshot.sort(ranking.order.reversed());
+        return snapshot;
+    }
+
+    void write(ExecutionLogger logger) {
+        logger.consumeLine("Slow script report (" + getEvaluations() + " evaluations)");
+        writeRanking(logger, "compile time", top(compileRanking), entry -> millis(entry.compileNanos));
+        writeRanking(logger, "run time", top(runRanking), entry -> millis(entry.runNanos));
+        writeRanking(logger, "output", top(outputRanking), entry -> entry.outputBytes + " bytes");
+    }
+
+    private static void writeRanking(
+            ExecutionLogger logger, String title, List<Entry> ranking, Function<Entry, String> cost) {
+        logger.consumeLine("Top " + ranking.size() + " by " + title + ":");
+        int rank = 1;
+        for (Entry entry : ranking) {
+            logger.consumeLine(String.format(
+                    Locale.ENGLISH,
+                    "%4d. %14s  %s: %s%s",
+                    rank++,
+                    cost.apply(entry),
+                    entry.description,
+                    entry.scriptFile.getPath(),
+                    entry.successful ? "" : " (failed)"));
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    void write(File file) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n  \"evaluations\": ").append(getEvaluations());
+        appendRanking(json, "slowestCompile", top(compileRanking));
+        appendRanking(json, "slowestRun", top(runRanking));
+        appendRanking(json, "largestOutput", top(outputRanking));
+        json.append("\n}\n");
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static void appendRanking(StringBuilder json, String name, List<Entry> ranking) {
+        json.append(",\n  \"").append(name).append("\": [");
+        for (int i = 0; i < ranking.size(); i++) {
+            Entry entry = ranking.get(i);
+            json.append(i > 0 ? "," : "").append("\n    {\"description\": ");
+            appendString(json, entry.description);
+            json.append(", \"script\": ");
+            appendString(json, entry.scriptFile.getPath());
+            json.append(", \"interpreter\": ");
+            appendString(json, entry.interpreter);
+            json.append(", \"compileNanos\": ").append(entry.compileNanos);
+            json.append(", \"runNanos\": ").append(entry.runNanos);
+            json.append(", \"outputBytes\": ").append(entry.outputBytes);
+            json.append(", \"successful\": ").append(entry.successful).append('}');
+        }
+        json.append(ranking.isEmpty() ? "]" : "\n  ]");
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * The most expensive evaluations by one cost, kept in a min-heap of bounded size so the cheapest retained entry is
+     * the one to evict. Evaluations without any such cost are ignored.
+     */
+    private static final class Ranking {
+
+        private final int size;
+
+        private final ToLongFunction<Entry> cost;
+
+        private final Comparator<Entry> order;
+
+        private final PriorityQueue<Entry> heap;
+
+        Ranking(int size, ToLongFunction<Entry> cost) {
+            this.size = size;
+            this.cost = cost;
+            this.order = Comparator.comparingLong(cost);
+            this.heap = new PriorityQueue<>(size, order);
+        }
+
+        void offer(Entry entry) {
+            long value = cost.applyAsLong(entry);
+            if (value <= 0) {
+                return;
+            }
+            if (heap.size() < size) {
+                heap.add(entry);
+            } else if (value > cost.applyAsLong(heap.peek())) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+    }
+
+    /**
+     * The costs of a single script evaluation.
+     */
+    static final class Entry {
+
+        private final String description;
+
+        private final File scriptFile;
+
+        private final String interpreter;
+
+        private final long compileNanos;
+
+        private final long runNanos;
+
+        private final long outputBytes;
+
+        private final boolean successful;
+
+        Entry(
+                String description,
+                File scriptFile,
+                String interpreter,
+                long compileNanos,
+                long runNanos,
+                long outputBytes,
+                boolean successful) {
+            this.description = description;
+            this.scriptFile = scriptFile;
+            this.interpreter = interpreter;
+            this.compileNanos = compileNanos;
+            this.runNanos = runNanos;
+            this.outputBytes = outputBytes;
+            this.successful = successful;
+        }
+
+        long getCompileNanos() {
+            return compileNanos;
+        }
+
+        long getRunNanos() {
+            return runNanos;
+        }
+
+        long getOutputBytes() {
+            return outputBytes;
+        }
+    }
+}
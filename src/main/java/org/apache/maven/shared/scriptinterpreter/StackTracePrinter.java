@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prints the stack traces of failed scripts in a compact form. Runs of frames from the interpreter internals are
+ * collapsed into a single line and the number of frames printed per throwable can be limited. A stack trace which was
+ * already printed for another script is replaced by a reference to that script, since many projects often fail the
+ * same way. Apart from that, the output follows {@link Throwable#printStackTrace(PrintStream)}.
+ */
+final class StackTracePrinter {
+
+    /**
+     * The class name prefixes of the frames from the interpreter and reflection internals.
+     */
+    static final List<String> INTERNAL_FRAME_PREFIXES = Collections.unmodifiableList(Arrays.asList(
+            "org.codehaus.groovy.",
+            "org.apache.groovy.",
+            "groovy.lang.",
+            "bsh.",
+            "sun.reflect.",
+            "jdk.internal.reflect.",
+            "java.lang.reflect.",
+            "java.lang.invoke.",
+            "org.apache.maven.shared.scriptinterpreter."));
+
+    /**
+     * The maximum number of printed stack traces to remember for deduplication.
+     */
+    static final int MAX_REMEMBERED_TRACES = 256;
+
+    private final List<String> internalFramePrefixes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The printed stack traces with the scripts they were printed for, guarded by {@link #lock}.
+     */
+    private final Map<String, String> printedTraces = new LinkedHashMap<String, String>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REMEMBERED_TRACES;
+        }
+    };
+
+    private final int maxDepth;
+
+    /**
+     * Creates a new printer.
+     *
+     * @param internalFramePrefixes The class name prefixes of the frames to collapse, must not be <code>null</code>.
+     * @param maxDepth The maximum number of frames to print per throwable, <code>0</code> for no limit.
+     */
+    StackTracePrinter(Collection<String> internalFramePrefixes, int maxDepth) {
+        this.internalFramePrefixes = new ArrayList<>(internalFramePrefixes);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Prints the stack trace of a script failure.
+     *
+     * @param throwable The failure, must not be <code>null</code>.
+     * @param scriptPath The path of the failed script, must not be <code>null</code>.
+     * @param out The stream to print to, must not be <code>null</code>.
+     */
+    void print(Throwable throwable, String scriptPath, PrintStream out) {
+        Set<Throwable> printed = Collections.newSetFromMap(new IdentityHashMap<>());
+        StringBuilder text = new StringBuilder(1024);
+        print(throwable, null, "", "", printed, text);
+
+        String trace = text.toString();
+        String previousScript;
+        lock.lock();
+        try {
+            previousScript = printedTraces.putIfAbsent(trace, scriptPath);
+        } finally {
+            lock.unlock();
+        }
+        if (previousScript != null && !previousScript.equals(scriptPath)) {
+            out.println(throwable);
+            out.println("\t... same stack trace as for " + previousScript);
+        } else {
+            out.print(trace);
+        }
+        out.flush();
+    }
+
+    private void print(
+            Throwable throwable,
+            StackTraceElement[] enclosingTrace,
+            String caption,
+            String prefix,
+            Set<Throwable> printed,
+            StringBuilder text) {
+        if (!printed.add(throwable)) {
+            text.append(prefix).append(caption).append("[CIRCULAR REFERENCE: ");
+            text.append(throwable).append("]\n");
+            return;
+        }
+        text.append(prefix).append(caption).append(throwable).append('\n');
+        StackTraceElement[] trace = printFrames(throwable.getStackTrace(), enclosingTrace, prefix, text);
+
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            print(suppressed, trace, "Suppressed: ", prefix + "\t", printed, text);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            print(cause, trace, "Caused by: ", prefix, printed, text);
+        }
+    }
+
+    /**
+     * Prints the frames of a throwable which are not in common with its enclosing throwable.
+     *
+     * @return The stack trace of the throwable.
+     */
+    private StackTraceElement[] printFrames(
+            StackTraceElement[] trace, StackTraceElement[] enclosingTrace, String prefix, StringBuilder text) {
+        int last = trace.length - 1;
+        if (enclosingTrace != null) {
+            int enclosingLast = enclosingTrace.length - 1;
+            while (last >= 0 && enclosingLast >= 0 && trace[last].equals(enclosingTrace[enclosingLast])) {
+                last--;
+                enclosingLast--;
+            }
+        }
+        int common = trace.length - 1 - last;
+
+        int depth = 0;
+        int internal = 0;
+        for (int i = 0; i <= last; i++) {
+            if (isInternal(trace[i])) {
+                internal++;
+                continue;
+            }
+            if (maxDepth > 0 && depth >= maxDepth) {
+                internal = 0;
+                text.append(prefix).append("\t... ").append(last + 1 - i).append(" more frames\n");
+                break;
+            }
+            appendInternal(internal, prefix, text);
+            internal = 0;
+            text.append(prefix).append("\tat ").append(trace[i]).append('\n');
+            depth++;
+        }
+        appendInternal(internal, prefix, text);
+        if (common > 0) {
+            text.append(prefix).append("\t... ").append(common).append(" more\n");
+        }
+        return trace;
+    }
+
+    private static void appendInternal(int internal, String prefix, StringBuilder text) {
+        if (internal > 0) {
+            text.append(prefix).append("\t... ").append(internal).append(" internal frames\n");
+        }
+    }
+
+    private boolean isInternal(StackTraceElement frame) {
+        String className = frame.getClassName();
+        for (String internalPrefix : internalFramePrefixes) {
+            if (className.startsWith(internalPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Redirects <code>System.out</code> and <code>System.err</code> per thread. While at least one redirection is active,
+ * both system streams are replaced by routing streams which forward to the target of the writing thread, falling back
+ * to the original streams. This allows scripts running concurrently to each capture their own output.
+ *
+ * <p>Targets are not inherited by threads created during a redirection: such threads (like common pool workers or
+ * thread pools started by a script) may outlive the script and would otherwise keep writing to its closed output.
+ */
+final class SystemStreams {
+
+    /**
+     * An active redirection, closing it restores the previous target of the current thread.
+     */
+    interface Redirection extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * The streams the system streams of a thread are redirected to.
+     */
+    private static final class Target {
+
+        private final PrintStream out;
+
+        private final PrintStream err;
+
+        Target(PrintStream out, PrintStream err) {
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    private static final ThreadLocal<Target> TARGET = new ThreadLocal<>();
+
+    private static int active;
+
+    private static volatile PrintStream originalOut;
+
+    private static volatile PrintStream originalErr;
+
+    private static PrintStream routedOut;
+
+    private static PrintStream routedErr;
+
+    private SystemStreams() {
+        // utility class
+    }
+
+    /**
+     * Redirects the system streams of the current thread. If the current thread already redirects its standard output
+     * to the given stream, its standard error stream stays as it is.
+     *
+     * @param target The stream to redirect to, may be <code>null</code> to use the original system streams.
+     * @return The redirection to close once done, never <code>null</code>.
+     */
+    static Redirection redirect(PrintStream target) {
+        Target current = TARGET.get();
+        if (target != null && current != null && current.out == target) {
+            return redirect(current);
+        }
+        return redirect(target != null ? new Target(target, target) : null);
+    }
+
+    /**
+     * Redirects the standard output and error streams of the current thread to separate streams.
+     *
+     * @param out The stream to redirect the standard output to, must not be <code>null</code>.
+     * @param err The stream to redirect the standard error to, must not be <code>null</code>.
+     * @return The redirection to close once done, never <code>null</code>.
+     */
+    static Redirection redirect(PrintStream out, PrintStream err) {
+        return redirect(new Target(out, err));
+    }
+
+    private static Redirection redirect(Target target) {
+        LOCK.lock();
+        try {
+            if (active++ == 0 || System.out != routedOut || System.err != routedErr) {
+                install();
+            }
+        } finally {
+            LOCK.unlock();
+        }
+
+        Target previous = TARGET.get();
+        TARGET.set(target);
+
+        return () -> {
+            TARGET.set(previous);
+            LOCK.lock();
+            try {
+                if (--active == 0) {
+                    uninstall();
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        };
+    }
+
+    private static void install() {
+        if (System.out != routedOut) {
+            originalOut = System.out;
+            routedOut = new PrintStream(new RoutingOutputStream(false));
+            System.setOut(routedOut);
+        }
+        if (System.err != routedErr) {
+            originalErr = System.err;
+            routedErr = new PrintStream(new RoutingOutputStream(true));
+            System.setErr(routedErr);
+        }
+    }
+
+    private static void uninstall() {
+        if (System.out == routedOut) {
+            System.setOut(originalOut);
+        }
+        if (System.err == routedErr) {
+            System.setErr(originalErr);
+        }
+        routedOut = null;
+        routedErr = null;
+    }
+
+    private static class RoutingOutputStream extends OutputStream {
+
+        private final boolean err;
+
+        RoutingOutputStream(boolean err) {
+            this.err = err;
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            target().flush();
+        }
+
+        private PrintStream target() {
+            Target target = TARGET.get();
+            if (target != null) {
+                return err ? target.err : target.out;
+            }
+            return err ? originalErr : originalOut;
+        }
+    }
+}
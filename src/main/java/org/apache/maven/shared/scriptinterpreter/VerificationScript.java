@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+
+/**
+ * A base class for Groovy hook scripts with helpers to verify build outputs without reading whole files into memory.
+ * Files are streamed through a small buffer and jar files are inspected through their central directory, so even
+ * multi-hundred-megabyte build logs can be verified cheaply. Use it with
+ * {@link ScriptRunner#setGroovyScriptBaseClass(String)}.
+ *
+ * <p>Files can be given as {@link File}s or as paths, relative paths are resolved against the <code>basedir</code>
+ * variable of the script. Texts are searched in their UTF-8 encoded form. Regular expressions consisting of ASCII
+ * characters are matched line by line against the raw bytes of each line, one character per byte, so the files can
+ * have any ASCII-compatible encoding. Regular expressions with other characters are matched against each line decoded
+ * as UTF-8. Matching lines are returned decoded as UTF-8. Lines are always matched as a whole, the buffer grows to hold
+ * the longest line of the file.
+ *
+ * @since 1.8
+ */
+public abstract class VerificationScript extends Script {
+
+    /**
+     * The initial number of bytes read at once.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    protected VerificationScript() {
+        super();
+    }
+
+    protected VerificationScript(Binding binding) {
+        super(binding);
+    }
+
+    /**
+     * Tells whether the specified file contains the given text.
+     *
+     * @param file The file to search, must not be <code>null</code>.
+     * @param text The text to search for, must not be <code>null</code>.
+     * @return <code>true</code> if the file contains the text, <code>false</code> otherwise.
+     * @throws IOException If the file could not be read.
+     */
+    public boolean fileContains(Object file, String text) throws IOException {
+        byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        if (pattern.length == 0) {
+            return true;
+        }
+
+        byte[] bytes = new byte[Math.max(BUFFER_SIZE, 2 * pattern.length)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try (FileChannel channel = FileChannel.open(toFile(file).toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                int length = buffer.position();
+                if (indexOf(bytes, length, pattern) >= 0) {
+                    return true;
+                }
+                // keep the tail so matches across the boundary of two reads are found
+                int tail = Math.min(length, pattern.length - 1);
+                System.arraycopy(bytes, length - tail, bytes, 0, tail);
+                buffer.position(tail);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether some line of the specified file contains a match of the given regular expression.
+     *
+     * @param file The file to search, must not be <code>null</code>.
+     * @param regex The regular expression to search for, must not be <code>null</code>.
+     * @return <code>true</code> if a line matches, <code>false</code> otherwise.
+     * @throws IOException If the file could not be read.
+     */
+    public boolean fileMatches(Object file, String regex) throws IOException {
+        return !grep(file, regex, 1).isEmpty();
+    }
+
+    /**
+     * Gets the first line of the specified file which contains a match of the given regular expression.
+     *
+     * @param file The file to search, must not be <code>null</code>.
+     * @param regex The regular expression to search for, must not be <code>null</code>.
+     * @return The first matching line (without line terminator) or <code>null</code> if no line matches.
+     * @throws IOException If the file could not be read.
+     */
+    public String findLine(Object file, String regex) throws IOException {
+        List<String> lines = grep(file, regex, 1);
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    /**
+     * Gets the lines of the specified file which contain a match of the given regular expression. Only the matching
+     * lines are decoded into strings.
+     *
+     * @param file The file to search, must not be <code>null</code>.
+     * @param regex The regular expression to search for, must not be <code>null</code>.
+     * @return The matching lines (without line terminators), never <code>null</code>.
+     * @throws IOException If the file could not be read.
+     */
+    public List<String> grep(Object file, String regex) throws IOException {
+        return grep(file, regex, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Counts the lines of the specified file which contain a match of the given regular expression.
+     *
+     * @param file The file to search, must not be <code>null</code>.
+     * @param regex The regular expression to search for, must not be <code>null</code>.
+     * @return The number of matching lines.
+     * @throws IOException If the file could not be read.
+     */
+    public int countLines(Object file, String regex) throws IOException {
+        LineScanner scanner = new LineScanner(Pattern.compile(regex), Integer.MAX_VALUE, false);
+        scanner.scan(toFile(file));
+        return scanner.count;
+    }
+
+    /**
+     * Tells whether the specified jar (or any other zip) file contains the given entry.
+     *
+     * @param jar The jar file, must not be <code>null</code>.
+     * @param entryName The name of the entry like <code>META-INF/MANIFEST.MF</code>, must not be <code>null</code>.
+     * @return <code>true</code> if the entry exists, <code>false</code> otherwise.
+     * @throws IOException If the jar file could not be read.
+     */
+    public boolean jarContains(Object jar, String entryName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(toFile(jar))) {
+            return zipFile.getEntry(entryName) != null;
+        }
+    }
+
+    /**
+     * Gets the names of the entries of the specified jar (or any other zip) file.
+     *
+     * @param jar The jar file, must not be <code>null</code>.
+     * @return The entry names in the order of the jar file, never <code>null</code>.
+     * @throws IOException If the jar file could not be read.
+     */
+    public List<String> jarEntries(Object jar) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(toFile(jar))) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Reads a single entry of the specified jar (or any other zip) file as UTF-8 text, without extracting the jar.
+     *
+     * @param jar The jar file, must not be <code>null</code>.
+     * @param entryName The name of the entry like <code>META-INF/MANIFEST.MF</code>, must not be <code>null</code>.
+     * @return The contents of the entry or <code>null</code> if there is no such entry.
+     * @throws IOException If the jar file could not be read.
+     */
+    public String jarEntryText(Object jar, String entryName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(toFile(jar))) {
+            ZipEntry entry = zipFile.getEntry(entryName);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                return new String(readFully(in), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private List<String> grep(Object file, String regex, int limit) throws IOException {
+        LineScanner scanner = new LineScanner(Pattern.compile(regex), limit, true);
+        scanner.scan(toFile(file));
+        return scanner.lines;
+    }
+
+    /**
+     * Resolves the specified file, relative paths are resolved against the <code>basedir</code> variable.
+     *
+     * @param file The file or path, must not be <code>null</code>.
+     * @return The file, never <code>null</code>.
+     */
+    protected File toFile(Object file) {
+        File result = file instanceof File ? (File) file : new File(String.valueOf(file));
+        if (!result.isAbsolute() && getBinding().hasVariable("basedir")) {
+            Object basedir = getBinding().getVariable("basedir");
+            if (basedir != null) {
+                result = new File(
+                        basedir instanceof File ? (File) basedir : new File(basedir.toString()), result.getPath());
+            }
+        }
+        return result;
+    }
+
+    static int indexOf(byte[] buffer, int length, byte[] pattern) {
+        byte first = pattern[0];
+        int last = length - pattern.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Scans the lines of a file through a reused buffer. Each line is matched as a view of the buffered bytes, so only
+     * matching lines are copied. The buffer is compacted when a line crosses its end and grown when a single line
+     * does not fit.
+     */
+    private static final class LineScanner {
+
+        private final Matcher matcher;
+
+        /**
+         * Whether lines are decoded before matching, because the pattern does not consist of ASCII characters only.
+         */
+        private final boolean decode;
+
+        private final int limit;
+
+        private final boolean collect;
+
+        private final List<String> lines = new ArrayList<>();
+
+        private int count;
+
+        LineScanner(Pattern pattern, int limit, boolean collect) {
+            this.matcher = pattern.matcher("");
+            this.decode = !pattern.pattern().chars().allMatch(c -> c < 0x80);
+            this.limit = limit;
+            this.collect = collect;
+        }
+
+        void scan(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                byte[] bytes = new byte[BUFFER_SIZE];
+                int length = 0;
+                int start = 0;
+                int position = 0;
+                while (true) {
+                    if (length == bytes.length) {
+                        if (start > 0) {
+                            System.arraycopy(bytes, start, bytes, 0, length - start);
+                            length -= start;
+                            position -= start;
+                            start = 0;
+                        } else {
+                            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                        }
+                    }
+                    int read = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length));
+                    if (read < 0) {
+                        break;
+                    }
+                    length += read;
+                    for (; position < length; position++) {
+                        if (bytes[position] == '\n') {
+                            if (match(bytes, start, position) && count >= limit) {
+                                return;
+                            }
+                            start = position + 1;
+                        }
+                    }
+                }
+                if (start < length) {
+                    // the last line without line terminator
+                    match(bytes, start, length);
+                }
+            }
+        }
+
+        private boolean match(byte[] bytes, int start, int end) {
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            CharSequence line = decode
+                    ? new String(bytes, start, end - start, StandardCharsets.UTF_8)
+                    : new ByteSequence(bytes, start, end - start);
+            if (!matcher.reset(line).find()) {
+                return false;
+            }
+            count++;
+            if (collect) {
+                lines.add(decode ? (String) line : new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A view of buffered bytes as characters, one character per byte. ASCII patterns match regardless of the
+     * (ASCII-compatible) encoding of the file.
+     */
+    private static final class ByteSequence implements CharSequence {
+
+        private final byte[] buffer;
+
+        private final int offset;
+
+        private final int length;
+
+        ByteSequence(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteSequence(buffer, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                text.append(charAt(i));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdmissionControlTest {
+
+    @Test
+    void weightShouldBeReadFromLeadingComments() {
+        assertEquals(1, AdmissionControl.getWeight("return true"));
+        assertEquals(4, AdmissionControl.getWeight("// @weight 4\nreturn true"));
+        assertEquals(3, AdmissionControl.getWeight("/*\n * Licensed ...\n * @weight 3\n */\n\nreturn true"));
+        assertEquals(1, AdmissionControl.getWeight("return true\n// @weight 4"));
+        assertEquals(1, AdmissionControl.getWeight("// @weight 0\nreturn true"));
+        assertEquals(1, AdmissionControl.getWeight("// @weight 99999999999\nreturn true"));
+    }
+
+    @Test
+    void capacityShouldLimitTheWeightOfRunningEvaluations() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setCapacity("groovy", 3);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            AdmissionControl.Admission first = admissionControl.admit("groovy", 2);
+            // other interpreters are not limited
+            admissionControl.admit("bsh", 10).close();
+
+            Future<AdmissionControl.Admission> second = executor.submit(() -> admissionControl.admit("groovy", 2));
+            assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+            first.close();
+            second.get(10, TimeUnit.SECONDS).close();
+
+            // heavier than the capacity, but nothing else runs
+            assertNotNull(admissionControl.admit("groovy", 5));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void heapThresholdShouldHoldBackAllButOneEvaluation() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl();
+        admissionControl.setHeapThreshold(Double.MIN_VALUE);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            AdmissionControl.Admission first = admissionControl.admit("groovy", 1);
+
+            Future<AdmissionControl.Admission> second = executor.submit(() -> admissionControl.admit("bsh", 1));
+            assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+            first.close();
+            second.get(10, TimeUnit.SECONDS).close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
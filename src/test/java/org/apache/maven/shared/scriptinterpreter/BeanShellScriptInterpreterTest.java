@@ -19,13 +19,22 @@
 package org.apache.maven.shared.scriptinterpreter;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests the BeanShell interpreter facade.
@@ -56,4 +65,81 @@ class BeanShellScriptInterpreterTest {
         }
         assertEquals("data", out.toString());
     }
+
+    @Test
+    void identicalScriptsShouldBeParsedOnce() throws Exception {
+        String script = "int twice(int value) {\n    return value * 2;\n}\nreturn twice(value);";
+        try (BeanShellScriptInterpreter interpreter = new BeanShellScriptInterpreter()) {
+            for (int value = 1; value <= 3; value++) {
+                Map<String, Object> vars = new HashMap<>();
+                vars.put("value", value);
+                EvaluationTimings timings = new EvaluationTimings();
+                assertEquals(
+                        value * 2, interpreter.evaluateScript(script, vars, null, EvaluationOptions.DEFAULT, timings));
+                assertEquals(value == 1, timings.getCompileNanos() > 0);
+            }
+        }
+    }
+
+    @Test
+    void scriptsDeclaringClassesShouldBeParsedAgain() throws Exception {
+        String script = "class Holder {\n    int get() { return value; }\n}\nHolder holder = new Holder();\n"
+                + "return holder.get();";
+        try (BeanShellScriptInterpreter interpreter = new BeanShellScriptInterpreter()) {
+            for (int value = 1; value <= 2; value++) {
+                Map<String, Object> vars = new HashMap<>();
+                vars.put("value", value);
+                EvaluationTimings timings = new EvaluationTimings();
+                assertEquals(value, interpreter.evaluateScript(script, vars, null, EvaluationOptions.DEFAULT, timings));
+                assertTrue(timings.getCompileNanos() > 0);
+            }
+        }
+    }
+
+    @Test
+    void concurrentEvaluationsShouldNotShareSyntaxTrees() throws Exception {
+        String script = "started.countDown();\nrelease.await();\nreturn value;";
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (BeanShellScriptInterpreter interpreter = new BeanShellScriptInterpreter()) {
+            Future<Object> running =
+                    executor.submit(() -> evaluate(interpreter, script, started, release, 1, new EvaluationTimings()));
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+
+            // the first evaluation still uses its syntax tree
+            EvaluationTimings concurrent = new EvaluationTimings();
+            assertEquals(2, evaluate(interpreter, script, new CountDownLatch(1), new CountDownLatch(0), 2, concurrent));
+            assertTrue(concurrent.getCompileNanos() > 0);
+
+            release.countDown();
+            assertEquals(1, running.get(30, TimeUnit.SECONDS));
+            EvaluationTimings cached = new EvaluationTimings();
+            assertEquals(3, evaluate(interpreter, script, new CountDownLatch(1), release, 3, cached));
+            assertFalse(cached.getCompileNanos() > 0);
+
+            // names may resolve differently against the new class path
+            interpreter.setClassPath(Collections.singletonList(new File("src/test-class-path").getAbsolutePath()));
+            EvaluationTimings reparsed = new EvaluationTimings();
+            assertEquals(4, evaluate(interpreter, script, new CountDownLatch(1), release, 4, reparsed));
+            assertTrue(reparsed.getCompileNanos() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Object evaluate(
+            BeanShellScriptInterpreter interpreter,
+            String script,
+            CountDownLatch started,
+            CountDownLatch release,
+            int value,
+            EvaluationTimings timings)
+            throws ScriptEvaluationException {
+        Map<String, Object> vars = new HashMap<>();
+        vars.put("started", started);
+        vars.put("release", release);
+        vars.put("value", value);
+        return interpreter.evaluateScript(script, vars, null, EvaluationOptions.DEFAULT, timings);
+    }
 }
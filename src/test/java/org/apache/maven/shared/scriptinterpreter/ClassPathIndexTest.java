@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the class path index used by the script class loaders.
+ */
+class ClassPathIndexTest {
+
+    private static final File JAR = new File("target/dependency/wiremock-jre8-standalone.jar");
+
+    @Test
+    void jarPackagesMatchZipFileEntries() throws Exception {
+        Set<String> expected = new HashSet<>();
+        try (ZipFile zipFile = new ZipFile(JAR)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    int slash = entry.getName().lastIndexOf('/');
+                    expected.add(slash > 0 ? entry.getName().substring(0, slash) : "");
+                }
+            }
+        }
+
+        Set<String> packages = ClassPathIndex.packagesOfJar(JAR.toPath());
+        assertTrue(packages.containsAll(expected));
+        packages.removeAll(expected);
+        packages.removeIf(name -> !name.isEmpty() && !name.contains("/"));
+        assertTrue(packages.isEmpty(), packages::toString);
+    }
+
+    @Test
+    void indexRulesOutPackagesNotInClassPath() throws Exception {
+        ClassPathIndex index = ClassPathIndex.build(new URL[] {
+            JAR.toURI().toURL(),
+            new File("src/test-class-path").toURI().toURL(),
+            new File("target/does-not-exist").toURI().toURL()
+        });
+
+        assertTrue(index.mayContainClass("com.github.tomakehurst.wiremock.WireMockServer"));
+        assertTrue(index.mayContainResource("class-path.txt"));
+        assertFalse(index.mayContainClass("java.lang.String"));
+        assertFalse(index.mayContainClass("org.apache.maven.shared.scriptinterpreter.ScriptRunner"));
+        assertFalse(index.mayContainResource("org/apache/maven/shared/scriptinterpreter/ScriptRunner.class"));
+    }
+
+    @Test
+    void urlsAreAddedOnce() throws Exception {
+        try (ChildFirstURLClassLoader classLoader =
+                new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader())) {
+            classLoader.addURL(JAR.toURI().toURL());
+            classLoader.addURL(JAR.toURI().toURL());
+            classLoader.addURL(new File("src/test-class-path").toURI().toURL());
+            classLoader.addURL(JAR.toURI().toURL());
+
+            assertEquals(2, classLoader.getURLs().length);
+        }
+    }
+
+    @Test
+    void preloadedClassesComeFromTheClassPath() throws Exception {
+        try (ChildFirstURLClassLoader classLoader =
+                new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader())) {
+            classLoader.addURL(JAR.toURI().toURL());
+            classLoader.preload(Arrays.asList(
+                    "com.github.tomakehurst.wiremock.WireMockServer", "org.example.DoesNotExist", "java.lang.String"));
+
+            assertSame(
+                    classLoader,
+                    classLoader
+                            .loadClass("com.github.tomakehurst.wiremock.WireMockServer")
+                            .getClassLoader());
+            assertEquals(
+                    ScriptRunner.class,
+                    classLoader.loadClass("org.apache.maven.shared.scriptinterpreter.ScriptRunner"));
+        }
+    }
+
+    @Test
+    void resourcesWrittenToDirectoriesLaterAreFound(@TempDir File tempDir) throws Exception {
+        File resource = new File(tempDir, "org/example/generated.txt");
+        assertTrue(resource.getParentFile().mkdirs());
+
+        try (ChildFirstURLClassLoader classLoader =
+                new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader())) {
+            classLoader.addURL(JAR.toURI().toURL());
+            classLoader.addURL(tempDir.toURI().toURL());
+            assertNull(classLoader.getResource("org/example/generated.txt"));
+
+            Files.write(resource.toPath(), "generated".getBytes());
+            assertNotNull(classLoader.getResource("org/example/generated.txt"));
+
+            // packages are recorded when the index is built, so a new package is only found by a new index
+            File newPackage = new File(tempDir, "org/other/generated.txt");
+            assertTrue(newPackage.getParentFile().mkdirs());
+            Files.write(newPackage.toPath(), "generated".getBytes());
+            assertNull(classLoader.getResource("org/other/generated.txt"));
+            assertTrue(ClassPathIndex.build(classLoader.getURLs()).mayContainResource("org/other/generated.txt"));
+        }
+    }
+
+    @Test
+    void missingResourcesAreLookedUpInTheOwnUrlsOnce() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        try (ChildFirstURLClassLoader classLoader =
+                new ChildFirstURLClassLoader(Thread.currentThread().getContextClassLoader()) {
+                    @Override
+                    public URL findResource(String name) {
+                        lookups.incrementAndGet();
+                        return super.findResource(name);
+                    }
+                }) {
+            classLoader.addURL(JAR.toURI().toURL());
+
+            assertNull(classLoader.getResource("com/github/tomakehurst/wiremock/missing.txt"));
+            assertEquals(1, lookups.get());
+            assertNull(classLoader.getResource("org/example/missing.txt"));
+            assertEquals(1, lookups.get());
+        }
+    }
+}
@@ -18,13 +18,20 @@
  */
 package org.apache.maven.shared.scriptinterpreter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -109,4 +116,157 @@ public class FileLoggerTest {
         assertTrue(outputFile.exists());
         assertEquals(EXPECTED_LOG, new String(Files.readAllBytes(outputFile.toPath())));
     }
+
+    @Test
+    void gzipOutputFile(@TempDir File tempDir) throws Exception {
+        File outputFile = new File(tempDir, "target/test.log.gz");
+        TestMirrorHandler mirrorHandler = new TestMirrorHandler();
+
+        try (FileLogger fileLogger = new FileLogger(outputFile, mirrorHandler, FileLoggerOutputFactory.gzip())) {
+            fileLogger.consumeLine("Test1");
+            fileLogger.getPrintStream().println("Test2");
+            fileLogger.getPrintStream().flush();
+        }
+
+        assertEquals(EXPECTED_LOG, mirrorHandler.getLoggedMessage());
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(outputFile.toPath()))) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                content.write(buffer, 0, n);
+            }
+        }
+        assertEquals(EXPECTED_LOG, content.toString());
+    }
+
+    @Test
+    void gzipOutputFileGetsExtension(@TempDir File tempDir) throws Exception {
+        File outputFile = new File(tempDir, "target/test.log");
+
+        try (FileLogger fileLogger = new FileLogger(outputFile, null, FileLoggerOutputFactory.gzip())) {
+            fileLogger.consumeLine("Test1");
+        }
+
+        assertFalse(outputFile.exists());
+        try (InputStream in =
+                new GZIPInputStream(Files.newInputStream(new File(tempDir, "target/test.log.gz").toPath()))) {
+            assertEquals('T', in.read());
+        }
+    }
+
+    @Test
+    void rotatingOutputFile(@TempDir File tempDir) throws Exception {
+        File outputFile = new File(tempDir, "target/test.log");
+        String line = "0123456789";
+
+        try (FileLogger fileLogger = new FileLogger(outputFile, null, FileLoggerOutputFactory.rotating(100, 2))) {
+            for (int i = 0; i < 30; i++) {
+                fileLogger.consumeLine(line);
+            }
+        }
+
+        File backup1 = new File(tempDir, "target/test.log.1");
+        File backup2 = new File(tempDir, "target/test.log.2");
+        assertTrue(backup1.exists());
+        assertTrue(backup2.exists());
+        assertFalse(new File(tempDir, "target/test.log.3").exists());
+        for (File file : Arrays.asList(outputFile, backup1, backup2)) {
+            assertTrue(file.length() <= 100, file + " has " + file.length() + " bytes");
+        }
+    }
+
+    @Test
+    void rotatingOutputFileDiscardsStaleBackups(@TempDir File tempDir) throws Exception {
+        File outputFile = new File(tempDir, "target/test.log");
+        File backup1 = new File(tempDir, "target/test.log.1");
+        File backup2 = new File(tempDir, "target/test.log.2");
+        Files.createDirectories(backup1.getParentFile().toPath());
+        Files.write(backup1.toPath(), "stale1".getBytes());
+        Files.write(backup2.toPath(), "stale2".getBytes());
+
+        try (FileLogger fileLogger = new FileLogger(outputFile, null, FileLoggerOutputFactory.rotating(100, 2))) {
+            for (int i = 0; i < 12; i++) {
+                fileLogger.consumeLine("0123456789");
+            }
+        }
+
+        assertTrue(backup1.exists());
+        assertFalse(backup2.exists());
+        assertFalse(new String(Files.readAllBytes(backup1.toPath())).contains("stale"));
+    }
+
+    @Test
+    void segmentedOutputFile(@TempDir File tempDir) throws Exception {
+        File sharedFile = new File(tempDir, "target/build.logs");
+
+        try (SegmentedLogFile segmentedLogFile = new SegmentedLogFile(sharedFile)) {
+            try (FileLogger logger1 = new FileLogger(new File(tempDir, "target/p1/build.log"), null, segmentedLogFile);
+                    FileLogger logger2 =
+                            new FileLogger(new File(tempDir, "target/p2/build.log"), null, segmentedLogFile)) {
+                logger1.consumeLine("Test1");
+                logger2.consumeLine("Other");
+                logger1.getPrintStream().println("Test2");
+            }
+
+            assertFalse(new File(tempDir, "target/p1").exists());
+            // loggers are closed in reverse order, which is when their segments get appended
+            assertEquals(Arrays.asList("p2/build.log", "p1/build.log"), segmentedLogFile.getSegmentNames());
+            assertEquals(EXPECTED_LOG, new String(segmentedLogFile.readSegment("p1/build.log")));
+        }
+
+        try (SegmentedLogFile reopened = new SegmentedLogFile(sharedFile)) {
+            assertEquals("Other" + System.lineSeparator(), new String(reopened.readSegment("p2/build.log")));
+            assertNull(reopened.readSegment("p3/build.log"));
+        }
+    }
+
+    @Test
+    void segmentedOutputFileWithBaseDirectory(@TempDir File tempDir) throws Exception {
+        File logsDir = new File(tempDir, "target/it-logs");
+        Map<String, Object> context = new HashMap<>();
+
+        try (SegmentedLogFile logs = new SegmentedLogFile(new File(tempDir, "target/it-logs.seg"), logsDir);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setGlobalVariable("globalVar", "Yeah baby it's rocks");
+            try (FileLogger logger = new FileLogger(new File(logsDir, "project/build.log"), null, logs)) {
+                scriptRunner.run("test", new File("src/test/resources/bsh-test"), "verify", context, logger);
+            }
+
+            assertEquals(Arrays.asList("project/build.log"), logs.getSegmentNames());
+            String log = new String(logs.readSegment("project/build.log"));
+            assertTrue(log.contains("globalVar=Yeah baby it's rocks"), log);
+            assertFalse(logsDir.exists());
+        }
+    }
+
+    @Test
+    void segmentsAreTruncatedWhenRecreated(@TempDir File tempDir) throws Exception {
+        File sharedFile = new File(tempDir, "target/build.logs");
+        File logFile = new File(tempDir, "target/p1/build.log");
+
+        try (SegmentedLogFile segmentedLogFile = new SegmentedLogFile(sharedFile)) {
+            try (FileLogger logger = new FileLogger(logFile, null, segmentedLogFile)) {
+                logger.consumeLine("First run");
+            }
+            try (FileLogger logger = new FileLogger(logFile, null, segmentedLogFile)) {
+                logger.consumeLine("Second run");
+            }
+            assertEquals(
+                    "Second run" + System.lineSeparator(), new String(segmentedLogFile.readSegment("p1/build.log")));
+        }
+
+        try (SegmentedLogFile reopened = new SegmentedLogFile(sharedFile)) {
+            assertEquals("Second run" + System.lineSeparator(), new String(reopened.readSegment("p1/build.log")));
+            try (FileLogger logger = new FileLogger(logFile, null, reopened)) {
+                // an empty log truncates the segment as well
+            }
+            assertEquals("", new String(reopened.readSegment("p1/build.log")));
+        }
+
+        try (SegmentedLogFile reopened = new SegmentedLogFile(sharedFile)) {
+            assertEquals("", new String(reopened.readSegment("p1/build.log")));
+        }
+    }
 }
@@ -29,6 +29,8 @@ import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * Tests the Groovy interpreter facade.
@@ -96,4 +98,42 @@ class GroovyScriptInterpreterTest {
         }
         assertEquals("data", out.toString());
     }
+
+    @Test
+    void compiledScriptsAreReused() throws Exception {
+        String script = "return [getClass(), foo]";
+        try (GroovyScriptInterpreter interpreter = new GroovyScriptInterpreter()) {
+            List<?> first = (List<?>) interpreter.evaluateScript(script, Collections.singletonMap("foo", "1"), null);
+            List<?> second = (List<?>) interpreter.evaluateScript(script, Collections.singletonMap("foo", "2"), null);
+
+            assertSame(first.get(0), second.get(0));
+            assertEquals("1", first.get(1));
+            assertEquals("2", second.get(1));
+        }
+    }
+
+    @Test
+    void staticStateIsNotSharedBetweenEvaluations() throws Exception {
+        String declaredClass = "class Counter { static int count }\nreturn ++Counter.count";
+        String staticField = "@groovy.transform.Field static int count = 0\nreturn ++count";
+        try (GroovyScriptInterpreter interpreter = new GroovyScriptInterpreter()) {
+            assertEquals(1, interpreter.evaluateScript(declaredClass, null, null));
+            assertEquals(1, interpreter.evaluateScript(declaredClass, null, null));
+            assertEquals(1, interpreter.evaluateScript(staticField, null, null));
+            assertEquals(1, interpreter.evaluateScript(staticField, null, null));
+        }
+    }
+
+    @Test
+    void evictedScriptsAreCompiledAgain() throws Exception {
+        try (GroovyScriptInterpreter interpreter = new GroovyScriptInterpreter()) {
+            interpreter.setMaxCompiledScripts(1);
+
+            Object first = interpreter.evaluateScript("return getClass()", null, null);
+            interpreter.evaluateScript("return [1, 2].collect { it * 2 }", null, null);
+            Object second = interpreter.evaluateScript("return getClass()", null, null);
+
+            assertNotSame(first, second);
+        }
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the sharing of interpreters between script runners.
+ */
+class InterpreterRegistryTest {
+
+    @Test
+    void interpretersAreSharedByConfiguration() throws Exception {
+        InterpreterRegistry registry = new InterpreterRegistry(InterpreterRegistry.DEFAULT_IDLE_TIMEOUT, 8);
+
+        try (InterpreterRegistry.Lease first = registry.lease(key("groovy", "a.jar"), TestInterpreter::new);
+                InterpreterRegistry.Lease second = registry.lease(key("groovy", "a.jar"), TestInterpreter::new);
+                InterpreterRegistry.Lease other = registry.lease(key("groovy", "b.jar"), TestInterpreter::new)) {
+            assertSame(first.getInterpreter(), second.getInterpreter());
+            assertNotSame(first.getInterpreter(), other.getInterpreter());
+            assertEquals(2, registry.size());
+        }
+
+        // returned interpreters are kept warm
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void idleInterpretersAreEvicted() throws Exception {
+        InterpreterRegistry registry = new InterpreterRegistry(InterpreterRegistry.DEFAULT_IDLE_TIMEOUT, 1);
+
+        TestInterpreter first;
+        try (InterpreterRegistry.Lease lease = registry.lease(key("bsh", "a.jar"), TestInterpreter::new)) {
+            first = (TestInterpreter) lease.getInterpreter();
+        }
+        TestInterpreter second;
+        try (InterpreterRegistry.Lease lease = registry.lease(key("bsh", "b.jar"), TestInterpreter::new)) {
+            second = (TestInterpreter) lease.getInterpreter();
+        }
+
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+        assertEquals(1, registry.size());
+
+        InterpreterRegistry expiring = new InterpreterRegistry(0, 8);
+        TestInterpreter expired;
+        try (InterpreterRegistry.Lease lease = expiring.lease(key("bsh", "a.jar"), TestInterpreter::new)) {
+            expired = (TestInterpreter) lease.getInterpreter();
+        }
+        assertTrue(expired.closed);
+        assertEquals(0, expiring.size());
+    }
+
+    @Test
+    void interpretersStayOpenWhileRetained() throws Exception {
+        InterpreterRegistry registry = new InterpreterRegistry(InterpreterRegistry.DEFAULT_IDLE_TIMEOUT, 0);
+
+        InterpreterRegistry.Lease lease = registry.lease(key("groovy", "a.jar"), TestInterpreter::new);
+        TestInterpreter interpreter = (TestInterpreter) lease.getInterpreter();
+        try (InterpreterRegistry.Lease evaluation = lease.retain()) {
+            lease.close();
+            assertSame(interpreter, evaluation.getInterpreter());
+            assertFalse(interpreter.closed);
+        }
+        assertTrue(interpreter.closed);
+    }
+
+    @Test
+    void expiredInterpretersAreSweptWithoutActivity() throws Exception {
+        InterpreterRegistry registry = new InterpreterRegistry(100, 8);
+
+        TestInterpreter interpreter;
+        try (InterpreterRegistry.Lease lease = registry.lease(key("bsh", "a.jar"), TestInterpreter::new)) {
+            interpreter = (TestInterpreter) lease.getInterpreter();
+        }
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!interpreter.closed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(interpreter.closed);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void keysCompareTheParentLoaderByIdentity() throws Exception {
+        try (URLClassLoader parent = new URLClassLoader(new URL[0], null);
+                URLClassLoader other = new URLClassLoader(new URL[0], null)) {
+            InterpreterRegistry.Key key =
+                    new InterpreterRegistry.Key("bsh", parent, Collections.emptyList(), null, null, 0, 0);
+            assertEquals(key, new InterpreterRegistry.Key("bsh", parent, Collections.emptyList(), null, null, 0, 0));
+            assertNotEquals(key, new InterpreterRegistry.Key("bsh", other, Collections.emptyList(), null, null, 0, 0));
+        }
+    }
+
+    @Test
+    void failedCreationIsNotRegistered() {
+        InterpreterRegistry registry = new InterpreterRegistry(InterpreterRegistry.DEFAULT_IDLE_TIMEOUT, 8);
+
+        assertThrows(
+                ScriptEvaluationException.class,
+                () -> registry.lease(key("groovy", "a.jar"), () -> {
+                    throw new ScriptEvaluationException(new IllegalStateException("broken prelude"));
+                }));
+        assertEquals(0, registry.size());
+    }
+
+    private static InterpreterRegistry.Key key(String interpreterId, String classPathEntry) {
+        return new InterpreterRegistry.Key(
+                interpreterId,
+                InterpreterRegistryTest.class.getClassLoader(),
+                Collections.singletonList(classPathEntry),
+                null,
+                null,
+                0,
+                0);
+    }
+
+    private static class TestInterpreter implements ScriptInterpreter {
+
+        private volatile boolean closed;
+
+        @Override
+        public void setClassPath(List<String> classPath) {}
+
+        @Override
+        public Object evaluateScript(String script, Map<String, ?> globalVariables, PrintStream scriptOutput) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
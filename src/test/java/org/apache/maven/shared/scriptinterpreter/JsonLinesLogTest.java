@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonLinesLogTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void scriptEventsShouldBeWrittenAsJsonLines() throws Exception {
+        File basedir = new File(tempDir, "project");
+        assertTrue(basedir.mkdirs());
+        Files.write(
+                new File(basedir, "verify.groovy").toPath(),
+                "System.out.print(\"to \\\"out\\\"\")\nSystem.err.print(\"to err\")\nreturn true".getBytes());
+        Files.write(new File(basedir, "fail.bsh").toPath(), "throw new IllegalStateException(\"broken\");".getBytes());
+        File logFile = new File(tempDir, "log/events.jsonl");
+
+        try (ScriptRunner scriptRunner = new ScriptRunner();
+                JsonLinesLog jsonLog = new JsonLinesLog(logFile);
+                FileLogger fileLogger = new FileLogger(new File(tempDir, "build.log"))) {
+            scriptRunner.setJsonLinesLog(jsonLog);
+            scriptRunner.run("verify script", basedir, "verify", new HashMap<>(), fileLogger);
+            assertThrows(
+                    ScriptEvaluationException.class,
+                    () -> scriptRunner.run("failing script", basedir, "fail", new HashMap<>(), null));
+        }
+
+        List<String> records = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(7, records.size(), records.toString());
+        for (String record : records) {
+            assertTrue(record.matches("\\{\"ts\":\\d+,\"event\":\"\\w+\",\"script\":\".*\"(,\"\\w+\":.*)*}"), record);
+        }
+
+        String verify = new File(basedir, "verify.groovy").getPath().replace("\\", "\\\\");
+        assertTrue(records.get(0)
+                .contains("\"event\":\"start\",\"script\":\"" + verify
+                        + "\",\"description\":\"verify script\",\"interpreter\":\"groovy\"}"));
+        assertTrue(records.get(1)
+                .endsWith("\"event\":\"output\",\"script\":\"" + verify
+                        + "\",\"stream\":\"out\",\"text\":\"to \\\"out\\\"\"}"));
+        assertTrue(records.get(2).endsWith("\"stream\":\"err\",\"text\":\"to err\"}"), records.get(2));
+        assertTrue(records.get(3).contains("\"event\":\"finish\""), records.get(3));
+        assertTrue(records.get(3).contains("\"successful\":true,"), records.get(3));
+        assertTrue(records.get(3).endsWith(",\"outputBytes\":14}"), records.get(3));
+
+        assertTrue(records.get(4).contains("\"event\":\"start\""), records.get(4));
+        assertTrue(records.get(5).contains("\"event\":\"exception\""), records.get(5));
+        assertTrue(records.get(5).contains("\"message\":\"broken\"}"), records.get(5));
+        assertTrue(records.get(6).contains("\"successful\":false,"), records.get(6));
+    }
+
+    @Test
+    void outputShouldBeRecordedPerLineWithCharactersSplitAcrossWrites() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream passedOn = new ByteArrayOutputStream();
+        byte[] bytes = "Gr\u00f6\u00dfe 1\nGr\u00f6\u00dfe 2".getBytes(Charset.defaultCharset());
+        String[] lines = new String(bytes, Charset.defaultCharset()).split("(?<=\n)");
+
+        try (JsonLinesLog jsonLog = new JsonLinesLog(log)) {
+            try (JsonLinesLog.Capture capture = jsonLog.capture(new File("verify.groovy"), new PrintStream(passedOn))
+                    .redirect()) {
+                for (byte b : bytes) {
+                    capture.getOut().write(b);
+                }
+            }
+        }
+
+        assertEquals(
+                new String(bytes, Charset.defaultCharset()),
+                new String(passedOn.toByteArray(), Charset.defaultCharset()));
+        String[] records = new String(log.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, records.length);
+        for (int i = 0; i < records.length; i++) {
+            StringBuilder text = new StringBuilder();
+            SlowScriptReport.appendString(text, lines[i]);
+            assertTrue(records[i].endsWith(",\"stream\":\"out\",\"text\":" + text + "}"), records[i]);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the lazily computed context of hook scripts.
+ */
+class LazyContextTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void lazyEntriesAreComputedOnceOnFirstRead() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        LazyContext context = new LazyContext();
+        context.putLazy("tree", () -> {
+            computations.incrementAndGet();
+            return "dependency tree";
+        });
+
+        assertTrue(context.containsKey("tree"));
+        assertFalse(context.isComputed("tree"));
+        assertEquals(0, computations.get());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> reads = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                reads.add(executor.submit(() -> {
+                    start.await();
+                    return context.get("tree");
+                }));
+            }
+            start.countDown();
+            for (Future<Object> read : reads) {
+                assertEquals("dependency tree", read.get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, computations.get());
+        assertTrue(context.isComputed("tree"));
+    }
+
+    @Test
+    void failedComputationsAreRepeated() {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyContext context = new LazyContext();
+        context.putLazy("pom", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("not yet");
+            }
+            return null;
+        });
+
+        assertThrows(IllegalStateException.class, () -> context.get("pom"));
+        assertNull(context.get("pom"));
+        assertTrue(context.containsKey("pom"));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void replacedAndRemovedEntriesAreNotComputed() {
+        LazyContext context = new LazyContext();
+        context.putLazy("pom", () -> {
+            throw new AssertionError("replaced before it was read");
+        });
+        context.putLazy("tree", () -> {
+            throw new AssertionError("removed before it was read");
+        });
+        context.putLazy("computed", () -> "value");
+        context.get("computed");
+
+        assertNull(context.put("pom", "replaced"));
+        assertNull(context.remove("tree"));
+        assertEquals("value", context.remove("computed"));
+        assertEquals("replaced", context.get("pom"));
+    }
+
+    @Test
+    void selfReferencesFail() {
+        LazyContext context = new LazyContext();
+        context.putLazy("loop", () -> context.get("loop"));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> context.get("loop"));
+        assertTrue(e.getMessage().contains("loop"), e.getMessage());
+    }
+
+    @Test
+    void snapshotsShareLazyEntries() {
+        AtomicInteger computations = new AtomicInteger();
+        LazyContext context = new LazyContext();
+        context.put("plain", null);
+        context.putLazy("lazy", computations::incrementAndGet);
+
+        LazyContext snapshot = context.snapshot();
+        context.put("plain", "changed");
+        snapshot.put("added", "value");
+
+        assertNull(snapshot.get("plain"));
+        assertTrue(snapshot.containsKey("plain"));
+        assertFalse(context.containsKey("added"));
+        assertEquals(1, snapshot.get("lazy"));
+        assertEquals(1, context.get("lazy"));
+        assertEquals(1, computations.get());
+
+        assertTrue(context.replace("lazy", 1, 2));
+        assertFalse(context.remove("lazy", 1));
+        assertEquals(2, context.get("lazy"));
+        assertEquals(1, snapshot.get("lazy"));
+    }
+
+    @Test
+    void scriptsComputeOnlyTheEntriesTheyRead() throws Exception {
+        File script = new File(tempDir, "verify.groovy");
+        Files.write(script.toPath(), "context.put('seen', context.pom.toUpperCase())\nreturn true".getBytes());
+
+        AtomicInteger computations = new AtomicInteger();
+        LazyContext context = new LazyContext();
+        context.putLazy("pom", () -> "pom-" + computations.incrementAndGet());
+        context.putLazy("tree", () -> {
+            throw new AssertionError("not read by the script");
+        });
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.run("test", script, context, null);
+            scriptRunner.run("test", script, context, null);
+        }
+
+        assertEquals("POM-1", context.get("seen"));
+        assertEquals(1, computations.get());
+        assertFalse(context.isComputed("tree"));
+    }
+}
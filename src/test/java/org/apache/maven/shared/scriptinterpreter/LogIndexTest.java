@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogIndexTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void textShouldBeSplitIntoDistinctTokens() {
+        assertEquals(
+                Arrays.asList("java", "lang", "nosuchmethoderror", "foo", "my_var$1"),
+                Arrays.asList(LogIndex.tokenize("java.lang.NoSuchMethodError: foo() a my_var$1 foo")
+                        .toArray()));
+    }
+
+    @Test
+    void scriptLogsShouldBeSearchable() throws Exception {
+        File indexFile = new File(tempDir, "logs/index.txt");
+        LogIndex index = LogIndex.load(indexFile);
+        File basedir = new File(tempDir, "project");
+        assertTrue(basedir.mkdirs());
+        Files.write(
+                new File(basedir, "verify.groovy").toPath(),
+                "println 'java.lang.NoSuchMethodError: foo()'\nreturn false".getBytes());
+        Files.write(new File(basedir, "setup.bsh").toPath(), "print(\"all good\");".getBytes());
+
+        File verifyLog = new File(tempDir, "logs/verify.log");
+        File setupLog = new File(tempDir, "logs/setup.log");
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            try (FileLogger logger = new FileLogger(setupLog, index.mirror(setupLog, null))) {
+                scriptRunner.run("setup script", basedir, "setup", new HashMap<>(), logger);
+            }
+            TestMirrorHandler mirrorHandler = new TestMirrorHandler();
+            try (FileLogger logger = new FileLogger(verifyLog, index.mirror(verifyLog, mirrorHandler))) {
+                assertThrows(
+                        ScriptReturnException.class,
+                        () -> scriptRunner.run("verify script", basedir, "verify", new HashMap<>(), logger));
+            }
+            assertTrue(mirrorHandler.getLoggedMessage().contains("NoSuchMethodError"));
+        }
+        index.save();
+
+        LogIndex loaded = LogIndex.load(indexFile);
+        assertEquals(Collections.singletonList(verifyLog.getAbsoluteFile()), loaded.search("NoSuchMethodError"));
+        assertEquals(Collections.singletonList(verifyLog.getAbsoluteFile()), loaded.search("lang.nosuchmethoderror"));
+        assertEquals(Arrays.asList(setupLog.getAbsoluteFile(), verifyLog.getAbsoluteFile()), loaded.search("Running"));
+        assertEquals(Collections.emptyList(), loaded.search("NoSuchFieldError"));
+        assertEquals(Collections.emptyList(), loaded.search("."));
+
+        // writing the log again replaces its tokens
+        try (FileLogger logger = new FileLogger(verifyLog, loaded.mirror(verifyLog, null))) {
+            logger.consumeLine("fixed");
+        }
+        assertEquals(Collections.emptyList(), loaded.search("NoSuchMethodError"));
+        assertEquals(Collections.singletonList(verifyLog.getAbsoluteFile()), loaded.search("fixed"));
+        assertEquals(Collections.singletonList(setupLog.getAbsoluteFile()), loaded.search("Running"));
+
+        // and so does writing it once more, with the tokens tracked since the index was loaded
+        try (FileLogger logger = new FileLogger(verifyLog, loaded.mirror(verifyLog, null))) {
+            logger.consumeLine("Running again");
+        }
+        assertEquals(Collections.emptyList(), loaded.search("fixed"));
+        assertEquals(Arrays.asList(setupLog.getAbsoluteFile(), verifyLog.getAbsoluteFile()), loaded.search("Running"));
+    }
+}
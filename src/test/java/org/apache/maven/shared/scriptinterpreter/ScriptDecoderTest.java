@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the decoding of script files.
+ */
+class ScriptDecoderTest {
+
+    private static final String TEXT = "println 'Gr\u00FC\u00DFe \u20AC'";
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void configuredEncodingIsUsed() throws Exception {
+        ScriptDecoder latin1 = ScriptDecoder.forEncoding("ISO-8859-1", false);
+        ScriptDecoder utf8 = ScriptDecoder.forEncoding("UTF-8", false);
+
+        assertEquals("return true", latin1.decode("return true".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(TEXT, utf8.decode(TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("\u00E4", latin1.decode(new byte[] {(byte) 0xE4}));
+        // without detection, UTF-8 content is decoded as configured
+        assertEquals("\u00C3\u00A4", latin1.decode("\u00E4".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(
+                "\uFEFFok", utf8.decode(withBom(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, "ok", "UTF-8")));
+    }
+
+    @Test
+    void asciiIncompatibleEncodingIsUsedForAsciiContent() throws Exception {
+        ScriptDecoder utf16 = ScriptDecoder.forEncoding("UTF-16LE", false);
+
+        assertEquals("ok", utf16.decode("ok".getBytes(StandardCharsets.UTF_16LE)));
+    }
+
+    @Test
+    void encodingIsDetected() throws Exception {
+        ScriptDecoder decoder = ScriptDecoder.forEncoding("ISO-8859-1", true);
+
+        assertEquals(TEXT, decoder.decode(TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("\u00E4", decoder.decode(new byte[] {(byte) 0xE4}));
+        assertEquals(TEXT, decoder.decode(withBom(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, TEXT, "UTF-8")));
+        assertEquals(TEXT, decoder.decode(withBom(new byte[] {(byte) 0xFE, (byte) 0xFF}, TEXT, "UTF-16BE")));
+        assertEquals(TEXT, decoder.decode(withBom(new byte[] {(byte) 0xFF, (byte) 0xFE}, TEXT, "UTF-16LE")));
+        assertEquals(TEXT, decoder.decode(withBom(new byte[] {0, 0, (byte) 0xFE, (byte) 0xFF}, TEXT, "UTF-32BE")));
+        assertEquals(TEXT, decoder.decode(withBom(new byte[] {(byte) 0xFF, (byte) 0xFE, 0, 0}, TEXT, "UTF-32LE")));
+        assertEquals("", decoder.decode(new byte[0]));
+    }
+
+    @Test
+    void unsupportedEncodingFailsTheRun() throws Exception {
+        assertThrows(UnsupportedEncodingException.class, () -> ScriptDecoder.forEncoding("no-such-encoding", true)
+                .decode(new byte[0]));
+
+        File script = new File(tempDir, "verify.groovy");
+        Files.write(script.toPath(), "return true".getBytes(StandardCharsets.US_ASCII));
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setScriptEncoding("no-such-encoding");
+            IOException e = assertThrows(IOException.class, () -> scriptRunner.run("test", script, null, null));
+            assertTrue(e.getMessage().startsWith("error reading test"), e.getMessage());
+
+            scriptRunner.setScriptEncoding("UTF-8");
+            scriptRunner.run("test", script, null, null);
+        }
+    }
+
+    private static byte[] withBom(byte[] bom, String text, String encoding) throws Exception {
+        byte[] content = text.getBytes(encoding);
+        byte[] bytes = new byte[bom.length + content.length];
+        System.arraycopy(bom, 0, bytes, 0, bom.length);
+        System.arraycopy(content, 0, bytes, bom.length, content.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests the Flight Recorder events of script executions. The recording API is accessed reflectively, like by the
+ * production code.
+ */
+class ScriptEventsTest {
+
+    private static final String PREFIX = "org.apache.maven.shared.scriptinterpreter.";
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void scriptExecutionsAreRecorded() throws Exception {
+        assumeTrue(ScriptEvents.isAvailable());
+
+        File passing = new File(tempDir, "passing.groovy");
+        Files.write(passing.toPath(), "println 'hello'\nreturn true".getBytes());
+        File failing = new File(tempDir, "failing.bsh");
+        Files.write(failing.toPath(), "return false;".getBytes());
+
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        Method enable = recordingClass.getMethod("enable", String.class);
+        for (String name : new String[] {
+            "ScriptResolved", "ScriptCompiled", "ScriptEvaluated", "ScriptFailed", "ScriptLoggerFlushed"
+        }) {
+            enable.invoke(recording, PREFIX + name);
+        }
+        Path dump = new File(tempDir, "scripts.jfr").toPath();
+        try {
+            recordingClass.getMethod("start").invoke(recording);
+            try (FileLogger logger = new FileLogger(new File(tempDir, "build.log"));
+                    ScriptRunner scriptRunner = new ScriptRunner()) {
+                scriptRunner.run("passing", tempDir, "passing", null, logger);
+                assertThrows(ScriptReturnException.class, () -> scriptRunner.run("failing", failing, null, logger));
+            }
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+        }
+
+        List<String> events = new ArrayList<>();
+        Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+        for (Object event :
+                (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, dump)) {
+            Object type = event.getClass().getMethod("getEventType").invoke(event);
+            String name = (String) type.getClass().getMethod("getName").invoke(type);
+            String field = name.endsWith("LoggerFlushed") ? "file" : "script";
+            String value = (String)
+                    event.getClass().getMethod("getString", String.class).invoke(event, field);
+            events.add(name.substring(PREFIX.length()) + " " + new File(value).getName());
+        }
+
+        assertTrue(events.contains("ScriptResolved passing.groovy"), events.toString());
+        assertTrue(events.contains("ScriptCompiled passing.groovy"), events.toString());
+        assertTrue(events.contains("ScriptEvaluated passing.groovy"), events.toString());
+        assertTrue(events.contains("ScriptCompiled failing.bsh"), events.toString());
+        assertTrue(events.contains("ScriptFailed failing.bsh"), events.toString());
+        assertTrue(events.contains("ScriptLoggerFlushed build.log"), events.toString());
+        assertEquals(
+                1, events.stream().filter(e -> e.startsWith("ScriptEvaluated")).count());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * An end-to-end load harness which generates a tree of script projects with mixed BeanShell and Groovy hooks, a large
+ * class path and chatty output, runs the resolve/run/log pipeline over it and reports throughput, latency percentiles
+ * and memory high-water marks. It also checks that the throughput of concurrent evaluations scales with the number of
+ * threads. The report is written to <code>target/load-report.txt</code>. It only runs with the <code>load</code>
+ * profile:
+ *
+ * <pre>
+ * mvn test -Pload -Dload.projects=5000 -Dload.parallelism=16 -Dload.classPathEntries=200 -Dload.outputLines=100
+ * </pre>
+ */
+@Tag("load")
+class ScriptRunnerLoadTest {
+
+    private static final int PROJECTS = Integer.getInteger("load.projects", 5000);
+
+    private static final int PARALLELISM =
+            Integer.getInteger("load.parallelism", Runtime.getRuntime().availableProcessors());
+
+    private static final int CLASS_PATH_ENTRIES = Integer.getInteger("load.classPathEntries", 200);
+
+    private static final int OUTPUT_LINES = Integer.getInteger("load.outputLines", 100);
+
+    private static final String[] HOOKS = {"selector", "setup", "verify"};
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void runProjects() throws Exception {
+        List<File> basedirs = generateProjects(new File(tempDir, "projects"));
+        List<String> classPath = generateClassPath(new File(tempDir, "lib"));
+
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long[] latencies = new long[PROJECTS * HOOKS.length];
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+        long start = System.nanoTime();
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            scriptRunner.setClassPath(classPath);
+            scriptRunner.setExpressionMaxLength(200);
+
+            for (String hook : HOOKS) {
+                Map<File, ResolvedScript> scripts = scriptRunner.resolveAll(basedirs, hook);
+                assertEquals(PROJECTS, scripts.size(), hook);
+
+                List<Future<Object>> results = new ArrayList<>();
+                for (Map.Entry<File, ResolvedScript> script : scripts.entrySet()) {
+                    results.add(executor.submit(() -> {
+                        File basedir = script.getKey();
+                        Map<String, Object> context = new HashMap<>();
+                        context.put("name", basedir.getName());
+                        long runStart = System.nanoTime();
+                        try (FileLogger logger = new FileLogger(new File(basedir, hook + ".log"))) {
+                            scriptRunner.run(hook + " script", script.getValue(), context, logger);
+                        }
+                        latencies[runs.getAndIncrement()] = System.nanoTime() - runStart;
+                        return null;
+                    }));
+                }
+                for (Future<Object> result : results) {
+                    result.get(10, TimeUnit.MINUTES);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(latencies.length, runs.get());
+        report(elapsed, latencies, pools);
+    }
+
+    @Test
+    void throughputShouldScale() throws Exception {
+        int threads = Math.min(PARALLELISM, Runtime.getRuntime().availableProcessors());
+        assumeTrue(threads >= 2, "needs at least two processors");
+        int runs = 50 * threads;
+        File script = new File(tempDir, "compute.groovy");
+        write(
+                script,
+                "long sum = 0\n"
+                        + "for (int i = 0; i < 200000; i++) {\n"
+                        + "    sum += i % 7\n"
+                        + "}\n"
+                        + "return sum > 0\n");
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            // warm up so the script is compiled and JIT-compiled before measuring
+            for (int i = 0; i < 20; i++) {
+                scriptRunner.run("warm-up", script, new HashMap<>(), null);
+            }
+
+            long sequential = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                scriptRunner.run("run-" + i, script, new HashMap<>(), null);
+            }
+            sequential = System.nanoTime() - sequential;
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long parallel = System.nanoTime();
+            try {
+                List<Future<Object>> results = new ArrayList<>();
+                for (int i = 0; i < runs; i++) {
+                    String id = "run-" + i;
+                    results.add(executor.submit(() -> {
+                        scriptRunner.run(id, script, new HashMap<>(), null);
+                        return null;
+                    }));
+                }
+                for (Future<Object> result : results) {
+                    result.get(10, TimeUnit.MINUTES);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            parallel = System.nanoTime() - parallel;
+
+            // a loose bound, the actual speedup depends on the machine
+            double speedup = (double) sequential / parallel;
+            assertTrue(
+                    speedup >= 1.2,
+                    String.format(
+                            "%d runs: sequential %d ms, parallel %d ms with %d threads",
+                            runs,
+                            TimeUnit.NANOSECONDS.toMillis(sequential),
+                            TimeUnit.NANOSECONDS.toMillis(parallel),
+                            threads));
+        }
+    }
+
+    private static void report(long elapsed, long[] latencies, List<MemoryPoolMXBean> pools) throws IOException {
+        Arrays.sort(latencies);
+        long heap = 0;
+        long metaspace = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            long peak = pool.getPeakUsage() != null ? pool.getPeakUsage().getUsed() : 0;
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += peak;
+            } else if ("Metaspace".equals(pool.getName())) {
+                metaspace = peak;
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+                "%d projects, %d runs with parallelism %d, %d class path entries, %d output lines per script%n",
+                PROJECTS, latencies.length, PARALLELISM, CLASS_PATH_ENTRIES, OUTPUT_LINES));
+        report.append(String.format(
+                "throughput: %.1f runs/s in %d ms%n",
+                latencies.length * 1e9 / elapsed, TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        report.append(String.format(
+                "latency: p50 %s, p90 %s, p99 %s, max %s%n",
+                millis(percentile(latencies, 50)),
+                millis(percentile(latencies, 90)),
+                millis(percentile(latencies, 99)),
+                millis(latencies[latencies.length - 1])));
+        report.append(String.format("high-water marks: heap %d MB, metaspace %d MB%n", heap >> 20, metaspace >> 20));
+        write(new File("target/load-report.txt"), report.toString());
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    /**
+     * Generates the project directories, alternating between BeanShell and Groovy hooks.
+     */
+    private static List<File> generateProjects(File root) throws IOException {
+        List<File> basedirs = new ArrayList<>(PROJECTS);
+        for (int i = 0; i < PROJECTS; i++) {
+            File basedir = new File(root, "project-" + i);
+            Files.createDirectories(basedir.toPath());
+            String extension = i % 2 == 0 ? ".bsh" : ".groovy";
+            write(new File(basedir, "selector" + extension), "return context.get(\"name\").startsWith(\"project-\");");
+            write(
+                    new File(basedir, "setup" + extension),
+                    "File marker = new File(basedir, \"setup.done\");\n"
+                            + "marker.createNewFile();\n"
+                            + "return true;\n");
+            write(
+                    new File(basedir, "verify" + extension),
+                    "if (!new File(basedir, \"setup.done\").exists()) {\n"
+                            + "    return false;\n"
+                            + "}\n"
+                            + "for (int i = 0; i < " + OUTPUT_LINES + "; i++) {\n"
+                            + "    System.out.println(\"[\" + context.get(\"name\") + \"] verifying line \" + i);\n"
+                            + "}\n"
+                            + "return true;\n");
+            basedirs.add(basedir);
+        }
+        return basedirs;
+    }
+
+    /**
+     * Generates jar files with a distinct package each, like the dependencies of a plugin.
+     */
+    private static List<String> generateClassPath(File lib) throws IOException {
+        Files.createDirectories(lib.toPath());
+        List<String> classPath = new ArrayList<>(CLASS_PATH_ENTRIES);
+        for (int i = 0; i < CLASS_PATH_ENTRIES; i++) {
+            File jar = new File(lib, "dependency-" + i + ".jar");
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+                for (int j = 0; j < 20; j++) {
+                    out.putNextEntry(new ZipEntry("org/example/dependency" + i + "/Resource" + j + ".properties"));
+                    out.write(("value=" + j).getBytes());
+                    out.closeEntry();
+                }
+            }
+            classPath.add(jar.getPath());
+        }
+        return Collections.unmodifiableList(classPath);
+    }
+
+    private static void write(File file, String script) throws IOException {
+        Files.write(file.toPath(), script.getBytes());
+    }
+}
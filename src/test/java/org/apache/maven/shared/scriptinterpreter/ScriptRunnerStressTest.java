@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs scripts from many platform and virtual threads at once to verify that their output is neither lost nor routed
+ * to the wrong logger and that concurrent evaluations do not deadlock.
+ */
+class ScriptRunnerStressTest {
+
+    private static final int RUNS = 200;
+
+    private static final int LINES = 50;
+
+    private static final String PRINT_LINES = "for (int i = 0; i < " + LINES + "; i++) {\n"
+            + "    System.out.println(\"id=\" + context.get(\"id\") + \" line=\" + i);\n"
+            + "}\n"
+            + "return true;\n";
+
+    @TempDir
+    private File tempDir;
+
+    private File basedir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        basedir = new File(tempDir, "scripts");
+        assertTrue(basedir.mkdirs());
+        for (String extension : new String[] {"bsh", "groovy"}) {
+            Files.write(new File(basedir, "print-lines." + extension).toPath(), PRINT_LINES.getBytes());
+            Files.write(new File(basedir, "fail." + extension).toPath(), "return false;".getBytes());
+        }
+    }
+
+    @CsvSource({"bsh, platform", "bsh, virtual", "groovy, platform", "groovy, virtual"})
+    @ParameterizedTest
+    void outputShouldNeverBeLostOrMisrouted(String scriptType, String threads) throws Exception {
+        ExecutorService executor = newExecutor(threads);
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            scriptRunner.setScriptEncoding("UTF-8");
+
+            List<Future<String[]>> results = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) {
+                String id = "run-" + i;
+                results.add(executor.submit(() -> {
+                    File logFile = new File(tempDir, id + ".log");
+                    TestMirrorHandler mirrorHandler = new TestMirrorHandler();
+                    try (FileLogger logger = new FileLogger(logFile, mirrorHandler)) {
+                        scriptRunner.run(id, new File(basedir, "print-lines." + scriptType), context(id), logger);
+                    }
+                    return new String[] {
+                        new String(Files.readAllBytes(logFile.toPath())), mirrorHandler.getLoggedMessage()
+                    };
+                }));
+            }
+
+            for (int i = 0; i < RUNS; i++) {
+                String[] logs = await(results.get(i));
+                assertEquals(logs[0], logs[1]);
+                assertLines(logs[0], "run-" + i, true);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @CsvSource({"platform", "virtual"})
+    @ParameterizedTest
+    void sharedLoggerShouldKeepAllLines(String threads) throws Exception {
+        ExecutorService executor = newExecutor(threads);
+        File logFile = new File(tempDir, "shared.log");
+        try (ScriptRunner scriptRunner = new ScriptRunner();
+                FileLogger logger = new FileLogger(logFile)) {
+            scriptRunner.setConcurrent(true);
+
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) {
+                String id = "run-" + i;
+                String scriptType = i % 2 == 0 ? "bsh" : "groovy";
+                results.add(executor.submit(() -> {
+                    scriptRunner.run(id, new File(basedir, "print-lines." + scriptType), context(id), logger);
+                    return null;
+                }));
+            }
+            for (Future<Object> result : results) {
+                await(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String logContent = new String(Files.readAllBytes(logFile.toPath()));
+        for (int i = 0; i < RUNS; i++) {
+            assertLines(logContent, "run-" + i, false);
+        }
+    }
+
+    @CsvSource({"platform", "virtual"})
+    @ParameterizedTest
+    void failuresShouldBeReportedToTheirOwnRun(String threads) throws Exception {
+        ExecutorService executor = newExecutor(threads);
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) {
+                String id = "run-" + i;
+                String script = (i % 3 == 0 ? "fail." : "print-lines.") + (i % 2 == 0 ? "bsh" : "groovy");
+                results.add(executor.submit(() -> {
+                    try {
+                        scriptRunner.run(id, new File(basedir, script), context(id), null);
+                        return true;
+                    } catch (ScriptReturnException e) {
+                        return false;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < RUNS; i++) {
+                assertEquals(i % 3 != 0, await(results.get(i)), "run-" + i);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void sessionsAndPreludesShouldNotDeadlock() throws Exception {
+        ExecutorService executor = newExecutor("virtual");
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            scriptRunner.setExpressionMaxLength(100);
+
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) {
+                String id = "run-" + i;
+                String scriptType = i % 2 == 0 ? "bsh" : "groovy";
+                int task = i;
+                results.add(executor.submit(() -> {
+                    if (task % 20 == 0) {
+                        scriptRunner.setPrelude(scriptType, "greeting = \"hello\";");
+                    }
+                    try (ScriptSession session = scriptRunner.openSession(basedir, context(id), null)) {
+                        assertTrue(session.run("print", "print-lines"));
+                        assertThrows(ScriptReturnException.class, () -> session.run("fail", "fail"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Object> result : results) {
+                await(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertLines(String logContent, String id, boolean exclusive) {
+        int count = 0;
+        int others = 0;
+        for (String line : logContent.split("\\R")) {
+            if (line.startsWith("id=" + id + " line=")) {
+                count++;
+            } else if (line.startsWith("id=")) {
+                others++;
+            }
+        }
+        assertEquals(LINES, count, id);
+        if (exclusive) {
+            assertEquals(0, others, id);
+        }
+    }
+
+    private static Map<String, Object> context(String id) {
+        Map<String, Object> context = new HashMap<>();
+        context.put("id", id);
+        return context;
+    }
+
+    private static ExecutorService newExecutor(String threads) {
+        return "virtual".equals(threads)
+                ? ScriptRunnerTest.newVirtualThreadExecutor()
+                : Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * Waits for the specified task, failing with the stack traces of deadlocked threads if it does not complete.
+     */
+    private static <T> T await(Future<T> result) throws Exception {
+        try {
+            return result.get(2, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long[] deadlocked = threads.findDeadlockedThreads();
+            StringBuilder message = new StringBuilder("Script run did not complete");
+            if (deadlocked != null) {
+                for (ThreadInfo info : threads.getThreadInfo(deadlocked, true, true)) {
+                    message.append(System.lineSeparator()).append(info);
+                }
+            }
+            return fail(message.toString(), e);
+        }
+    }
+}
@@ -19,10 +19,21 @@
 package org.apache.maven.shared.scriptinterpreter;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -30,7 +41,13 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -264,6 +281,438 @@ class ScriptRunnerTest {
         assertTrue(logContent.contains("wireMockServer stopped"));
     }
 
+    @ValueSource(strings = {"bsh", "groovy"})
+    @ParameterizedTest
+    void concurrentRunsShouldKeepTheirOutput(String scriptType) throws Exception {
+        File basedir = new File(String.format("src/test/resources/%s-test", scriptType));
+        ExecutorService executor = newVirtualThreadExecutor();
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+
+            List<Future<String>> logs = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String id = "run-" + i;
+                Map<String, Object> context = new HashMap<>();
+                context.put("id", id);
+                logs.add(executor.submit(() -> {
+                    File logFile = new File(tempDir, id + ".log");
+                    try (FileLogger logger = new FileLogger(logFile)) {
+                        scriptRunner.run(id, basedir, "print-id", context, logger);
+                    }
+                    return new String(Files.readAllBytes(logFile.toPath()));
+                }));
+            }
+
+            for (int i = 0; i < logs.size(); i++) {
+                String logContent = logs.get(i).get(1, TimeUnit.MINUTES);
+                assertTrue(logContent.contains("id=run-" + i + System.lineSeparator()), logContent);
+                assertEquals(logContent.indexOf("id="), logContent.lastIndexOf("id="), logContent);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @ValueSource(strings = {"bsh", "groovy"})
+    @ParameterizedTest
+    void preludeShouldBeAvailableToAllScripts(String scriptType) throws Exception {
+        File basedir = new File(String.format("src/test/resources/%s-test", scriptType));
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setPrelude(scriptType, new File(basedir, "prelude." + scriptType));
+
+            for (int i = 0; i < 2; i++) {
+                File logFile = new File(tempDir, "build-" + i + ".log");
+                try (FileLogger fileLogger = new FileLogger(logFile)) {
+                    scriptRunner.run("test", basedir, "use-prelude", buildContext(), fileLogger);
+                }
+
+                String logContent = new String(Files.readAllBytes(logFile.toPath()));
+                assertTrue(logContent.contains("Hello bar from " + scriptType + "-test"), logContent);
+                assertTrue(logContent.contains("bsh".equals(scriptType) ? "ABab" : "abab"), logContent);
+            }
+
+            scriptRunner.setPrelude(scriptType, (String) null);
+            assertThrows(
+                    ScriptEvaluationException.class,
+                    () -> scriptRunner.run("test", basedir, "use-prelude", buildContext(), null));
+        }
+    }
+
+    @ValueSource(strings = {"bsh", "groovy"})
+    @ParameterizedTest
+    void sessionShouldRunScriptsOfAProject(String scriptType) throws Exception {
+        File basedir = new File(tempDir, "project");
+        assertTrue(basedir.mkdirs());
+        Files.write(
+                new File(basedir, "setup." + scriptType).toPath(),
+                "marker = name + \"-\" + context.get(\"foo\");\nreturn true;".getBytes());
+        Files.write(
+                new File(basedir, "verify." + scriptType).toPath(),
+                "return marker.equals(\"session-bar\");".getBytes());
+
+        try (ScriptRunner scriptRunner = new ScriptRunner();
+                FileLogger fileLogger = new FileLogger(new File(tempDir, "build.log"))) {
+            try (ScriptSession session = scriptRunner.openSession(basedir, buildContext(), fileLogger)) {
+                session.setShareVariables(true);
+                session.setVariable("name", "session");
+                assertTrue(session.run("setup script", "setup"));
+                assertFalse(session.run("pre-build script", "prebuild"));
+                assertFalse(session.run("post-build script", (String) null));
+                assertTrue(session.run("verification script", "verify"));
+                assertEquals("session-bar", session.getVariable("marker"));
+            }
+
+            try (ScriptSession session = scriptRunner.openSession(basedir, buildContext(), fileLogger)) {
+                session.setVariable("name", "session");
+                assertTrue(session.run("setup script", "setup"));
+                assertNull(session.getVariable("marker"));
+                assertThrows(ScriptEvaluationException.class, () -> session.run("verification script", "verify"));
+                session.close();
+                assertThrows(IllegalStateException.class, () -> session.run("verification script", "verify"));
+            }
+        }
+    }
+
+    @ValueSource(strings = {"bsh", "groovy"})
+    @ParameterizedTest
+    void expressionsShouldBeEvaluatedWithFreshVariables(String scriptType) throws Exception {
+        File basedir = new File(tempDir, "selector");
+        assertTrue(basedir.mkdirs());
+        Files.write(
+                new File(basedir, "selector." + scriptType).toPath(),
+                "return context.get(\"foo\").equals(\"bar\");\n".getBytes());
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setExpressionMaxLength(200);
+
+            for (int i = 0; i < 20; i++) {
+                Map<String, Object> context = new HashMap<>();
+                context.put("foo", i % 2 == 0 ? "bar" : "baz");
+                if (i % 2 == 0) {
+                    scriptRunner.run("selector " + i, basedir, "selector", context, null);
+                } else {
+                    assertThrows(
+                            ScriptReturnException.class,
+                            () -> scriptRunner.run("selector", basedir, "selector", context, null));
+                }
+            }
+        }
+    }
+
+    @Test
+    void metricsShouldTrackGeneratedClassesAndRecycledLoaders() throws Exception {
+        File basedir = new File("src/test/resources/groovy-test");
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setMaxEvaluationsPerLoader(3);
+            for (int i = 0; i < 7; i++) {
+                scriptRunner.run("test", basedir, "return-null", null, null);
+            }
+
+            ScriptRunnerMetrics metrics = scriptRunner.getMetrics();
+            assertEquals(7, metrics.getEvaluations());
+            assertEquals(3, metrics.getLoadersCreated());
+            assertEquals(2, metrics.getLoadersRecycled());
+            assertEquals(3, metrics.getClassesDefined());
+            assertTrue(metrics.getGeneratedClassBytes() > 0);
+            assertTrue(metrics.getLoadedClassCount() > 0);
+            assertNotEquals(0, metrics.getMetaspaceUsed());
+
+            scriptRunner.setMaxEvaluationsPerLoader(0);
+            scriptRunner.setMaxGeneratedClassBytesPerLoader(1);
+            scriptRunner.run("test", basedir, "return-null", null, null);
+            scriptRunner.run("test", basedir, "return-null", null, null);
+            assertEquals(4, scriptRunner.getMetrics().getLoadersRecycled());
+        }
+    }
+
+    @Test
+    void sharedInterpretersShouldBeReusedAcrossRunners() throws Exception {
+        File script = new File(tempDir, "verify.groovy");
+        Files.write(script.toPath(), "context.put('scriptClass', getClass())\nreturn true".getBytes());
+
+        Object first = runForScriptClass(script, true, Collections.emptyList());
+        Object second = runForScriptClass(script, true, Collections.emptyList());
+        Object otherClassPath = runForScriptClass(
+                script, true, Collections.singletonList(new File("src/test-class-path").getAbsolutePath()));
+        Object notShared = runForScriptClass(script, false, Collections.emptyList());
+
+        assertSame(first, second);
+        assertNotSame(first, otherClassPath);
+        assertNotSame(first, notShared);
+    }
+
+    private Object runForScriptClass(File script, boolean shared, List<String> classPath) throws Exception {
+        Map<String, Object> context = new HashMap<>();
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setShareInterpreters(shared);
+            scriptRunner.setClassPath(classPath);
+            scriptRunner.run("test", script, context, null);
+        }
+        return context.get("scriptClass");
+    }
+
+    @Test
+    void replacedClassPathShouldApplyToNewEvaluationsOnly() throws Exception {
+        File classPathDir = new File(tempDir, "class-path");
+        assertTrue(classPathDir.mkdirs());
+        Files.write(new File(classPathDir, "marker.txt").toPath(), "marker".getBytes());
+        File script = new File(tempDir, "verify.groovy");
+        Files.write(
+                script.toPath(),
+                ("context.get('started')?.countDown()\n"
+                                + "context.get('release')?.await()\n"
+                                + "context.put('loader', getClass().getClassLoader())\n"
+                                + "context.put('marker', getClass().getClassLoader().getResource('marker.txt'))\n"
+                                + "return true")
+                        .getBytes());
+        List<String> classPath = Collections.singletonList(classPathDir.getAbsolutePath());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            scriptRunner.setClassPath(classPath);
+            scriptRunner.setClassPath(classPath);
+
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Map<String, Object> running = new HashMap<>();
+            running.put("started", started);
+            running.put("release", release);
+            Future<?> future = executor.submit(() -> {
+                scriptRunner.run("test", script, running, null);
+                return null;
+            });
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+
+            scriptRunner.replaceClassPath(Collections.emptyList());
+            Map<String, Object> replaced = new HashMap<>();
+            scriptRunner.run("test", script, replaced, null);
+            assertNull(replaced.get("marker"));
+
+            release.countDown();
+            future.get(30, TimeUnit.SECONDS);
+            // the running script finished on the previous version, which was closed afterwards
+            assertNotNull(running.get("marker"));
+            assertNotSame(running.get("loader"), replaced.get("loader"));
+            assertNull(((ClassLoader) running.get("loader")).getResource("marker.txt"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowScriptReportShouldRankScripts() throws Exception {
+        File noisy = new File(tempDir, "noisy.groovy");
+        Files.write(noisy.toPath(), "10000.times { println 'line ' + it }\nreturn true".getBytes());
+        File failing = new File(tempDir, "failing.bsh");
+        Files.write(failing.toPath(), "Thread.sleep(500);\nreturn \"nope\";".getBytes());
+
+        List<String> lines = new ArrayList<>();
+        ExecutionLogger reportLogger = new ExecutionLogger() {
+            @Override
+            public PrintStream getPrintStream() {
+                return System.out;
+            }
+
+            @Override
+            public void consumeLine(String line) {
+                lines.add(line);
+            }
+        };
+        File jsonReport = new File(tempDir, "reports/slow-scripts.json");
+
+        try (FileLogger fileLogger = new FileLogger(new File(tempDir, "build.log"));
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.writeSlowScriptReport(reportLogger);
+            assertTrue(lines.isEmpty());
+
+            scriptRunner.setSlowScriptReportSize(2);
+            scriptRunner.run(
+                    "verify", new File("src/test/resources/groovy-test"), "verify", buildContext(), fileLogger);
+            scriptRunner.run("noisy", noisy, null, fileLogger);
+            assertThrows(ScriptReturnException.class, () -> scriptRunner.run("failing", failing, null, fileLogger));
+
+            scriptRunner.writeSlowScriptReport(reportLogger);
+            scriptRunner.writeSlowScriptReport(jsonReport);
+        }
+
+        assertEquals("Slow script report (3 evaluations)", lines.get(0));
+        assertEquals("Top 2 by compile time:", lines.get(1));
+        assertEquals("Top 2 by run time:", lines.get(4));
+        assertEquals("Top 2 by output:", lines.get(7));
+        assertTrue(lines.get(8).contains("noisy: " + noisy.getPath()), lines.get(8));
+        assertTrue(lines.subList(5, 7).stream()
+                .anyMatch(line -> line.endsWith("failing: " + failing.getPath() + " (failed)")));
+
+        String json = new String(Files.readAllBytes(jsonReport.toPath()), "UTF-8");
+        assertTrue(json.contains("\"evaluations\": 3"), json);
+        assertTrue(json.contains("\"largestOutput\": [\n    {\"description\": \"noisy\""), json);
+        assertTrue(json.contains("\"interpreter\": \"bsh\""), json);
+        assertTrue(json.contains("\"successful\": false"), json);
+    }
+
+    @Test
+    void runAllShouldStartTheLongestScriptsFirst() throws Exception {
+        List<File> basedirs = new ArrayList<>();
+        for (String name : new String[] {"fast", "slow", "medium"}) {
+            File basedir = new File(tempDir, name);
+            assertTrue(basedir.mkdirs());
+            long sleep = "slow".equals(name) ? 300 : "medium".equals(name) ? 100 : 0;
+            Files.write(
+                    new File(basedir, "verify.groovy").toPath(),
+                    ("context.get(\"order\").add(basedir.getName())\nThread.sleep(" + sleep + ")\nreturn true")
+                            .getBytes());
+            basedirs.add(basedir);
+        }
+        File historyFile = new File(tempDir, "timings.txt");
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            ScriptTimingHistory history = ScriptTimingHistory.load(historyFile);
+            scriptRunner.setTimingHistory(history);
+            Collection<ResolvedScript> scripts =
+                    scriptRunner.resolveAll(basedirs, "verify").values();
+
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            Map<String, Object> context = new HashMap<>();
+            context.put("order", order);
+            scriptRunner.runAll("verification script", scripts, context, null, null);
+            assertEquals(Arrays.asList("fast", "slow", "medium"), order);
+            history.save();
+
+            order.clear();
+            scriptRunner.setTimingHistory(null);
+            scriptRunner.runAll("verification script", scripts, context, null, null);
+            assertEquals(Arrays.asList("fast", "slow", "medium"), order);
+        }
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setTimingHistory(ScriptTimingHistory.load(historyFile));
+            Collection<ResolvedScript> scripts =
+                    scriptRunner.resolveAll(basedirs, "verify").values();
+
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            Map<String, Object> context = new HashMap<>();
+            context.put("order", order);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                scriptRunner.runAll("verification script", scripts, context, null, executor);
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(Arrays.asList("slow", "medium", "fast"), order);
+        }
+    }
+
+    @Test
+    void maxConcurrentEvaluationsShouldBeHonored() throws Exception {
+        File script = new File(tempDir, "count.groovy");
+        Files.write(
+                script.toPath(),
+                ("int running = context.get(\"running\").incrementAndGet()\n"
+                                + "context.get(\"max\").accumulateAndGet(running, Math::max)\n"
+                                + "Thread.sleep(20)\n"
+                                + "context.get(\"running\").decrementAndGet()\n"
+                                + "return true")
+                        .getBytes());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        Map<String, Object> context = new HashMap<>();
+        context.put("running", running);
+        context.put("max", max);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setConcurrent(true);
+            scriptRunner.setMaxConcurrentEvaluations("groovy", 2);
+
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> {
+                    scriptRunner.run("count", script, context, null);
+                    return null;
+                }));
+            }
+            for (Future<Object> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, max.get());
+    }
+
+    @Test
+    void resolveAllShouldFindScriptsInManyBasedirs() throws Exception {
+        File bshDir = new File("src/test/resources/bsh-test");
+        File groovyDir = new File("src/test/resources/groovy-test");
+        File missingDir = new File(tempDir, "missing");
+        File explicitDir = new File(tempDir, "explicit");
+        assertTrue(new File(explicitDir, "verify").mkdirs());
+
+        List<File> basedirs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            File projectDir = new File(tempDir, "project-" + i);
+            assertTrue(projectDir.mkdirs());
+            Files.write(new File(projectDir, "verify-not.groovy").toPath(), "return false".getBytes());
+            if (i % 2 == 0) {
+                Files.write(new File(projectDir, "verify.groovy").toPath(), "return true".getBytes());
+            }
+            basedirs.add(projectDir);
+        }
+        basedirs.add(0, bshDir);
+        basedirs.add(groovyDir);
+        basedirs.add(missingDir);
+        basedirs.add(explicitDir);
+
+        try (ScriptRunner scriptRunner = new ScriptRunner()) {
+            Map<File, ResolvedScript> resolved = scriptRunner.resolveAll(basedirs, "verify");
+
+            assertEquals(13, resolved.size());
+            assertEquals(bshDir, resolved.keySet().iterator().next());
+            assertEquals(new File(bshDir, "verify.bsh"), resolved.get(bshDir).getScriptFile());
+            assertTrue(resolved.get(bshDir).getInterpreter() instanceof BeanShellScriptInterpreter);
+            assertEquals(
+                    new File(groovyDir, "verify.groovy"),
+                    resolved.get(groovyDir).getScriptFile());
+            assertTrue(resolved.get(groovyDir).getInterpreter() instanceof GroovyScriptInterpreter);
+            assertFalse(resolved.containsKey(missingDir));
+            assertFalse(resolved.containsKey(new File(tempDir, "project-1")));
+            // like the single-script resolution, an exact match wins over the extensions
+            assertEquals(
+                    new File(explicitDir, "verify"), resolved.get(explicitDir).getScriptFile());
+
+            File projectDir = new File(tempDir, "project-0");
+            File logFile = new File(tempDir, "build.log");
+            try (FileLogger logger = new FileLogger(logFile)) {
+                scriptRunner.run("test", resolved.get(projectDir), buildContext(), logger);
+            }
+            String logContent = new String(Files.readAllBytes(logFile.toPath()));
+            assertTrue(logContent.contains(new File(projectDir, "verify.groovy").getPath()));
+
+            assertEquals(
+                    new File(groovyDir, "verify.groovy"),
+                    scriptRunner
+                            .resolveAll(Collections.singletonList(groovyDir), "verify.groovy")
+                            .get(groovyDir)
+                            .getScriptFile());
+        }
+    }
+
+    /**
+     * Uses virtual threads where the running JVM supports them, platform threads otherwise.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(8);
+        }
+    }
+
     private Map<String, ?> buildContext() {
         Map<String, Object> context = new HashMap<>();
         context.put("foo", "bar");
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptTimingHistoryTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void durationsShouldBeSmoothedPerContents() throws Exception {
+        ScriptTimingHistory history = ScriptTimingHistory.load(new File(tempDir, "timings.txt"));
+        File script = new File(tempDir, "verify.groovy");
+        String hash = ScriptTimingHistory.hash("return true".getBytes());
+
+        assertEquals(-1, history.getDuration(script, hash));
+        history.record(script, hash, 100);
+        history.record(script, hash, 300);
+        assertEquals(200, history.getDuration(script, hash));
+
+        String changed = ScriptTimingHistory.hash("return false".getBytes());
+        assertNotEquals(hash, changed);
+        assertEquals(-1, history.getDuration(script, changed));
+        assertEquals(200, history.getDuration(script, null));
+
+        history.record(script, changed, 50);
+        assertEquals(50, history.getDuration(script, changed));
+        assertEquals(-1, history.getDuration(script, hash));
+    }
+
+    @Test
+    void historyShouldSurviveSaveAndLoad() throws Exception {
+        File file = new File(tempDir, "history/timings.txt");
+        ScriptTimingHistory history = ScriptTimingHistory.load(file);
+        history.save();
+        assertFalse(file.exists());
+
+        File script = new File(tempDir, "dir with spaces/verify.bsh");
+        String hash = ScriptTimingHistory.hash(new byte[0]);
+        history.record(script, hash, 42);
+        history.save();
+        assertTrue(file.isFile());
+
+        Files.write(file.toPath(), "garbage\nnot-a-number\tx\ty\n".getBytes(), StandardOpenOption.APPEND);
+        ScriptTimingHistory loaded = ScriptTimingHistory.load(file);
+        assertEquals(42, loaded.getDuration(script, hash));
+        assertEquals(1, tempDir.toPath().resolve("history").toFile().list().length);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the evaluation of scripts in worker JVMs.
+ */
+class ScriptWorkerPoolTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void groovyInWorker() throws Exception {
+        File logFile = new File(tempDir, "build.log");
+        Map<String, Object> context = new HashMap<>();
+        context.put("foo", "bar");
+
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                FileLogger fileLogger = new FileLogger(logFile);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+            scriptRunner.setGlobalVariable("globalVar", "Yeah baby it's rocks");
+            scriptRunner.run("test", new File("src/test/resources/groovy-test"), "verify", context, fileLogger);
+        }
+
+        String logContent = new String(Files.readAllBytes(logFile.toPath()));
+        assertTrue(logContent.contains("foo=bar"));
+        assertTrue(logContent.contains("globalVar=Yeah baby it's rocks"));
+    }
+
+    @Test
+    void beanshellReturnedNotTrueInWorker() throws Exception {
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+
+            ScriptReturnException e = assertThrows(
+                    ScriptReturnException.class,
+                    () -> scriptRunner.run(
+                            "test", new File("src/test/resources/bsh-test"), "return-not-true", null, null));
+            assertEquals("Not true value", e.getResult());
+        }
+    }
+
+    @Test
+    void preludeInWorker() throws Exception {
+        File basedir = new File("src/test/resources/groovy-test");
+        File logFile = new File(tempDir, "build.log");
+        Map<String, Object> context = new HashMap<>();
+        context.put("foo", "bar");
+
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                FileLogger fileLogger = new FileLogger(logFile);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+            scriptRunner.setPrelude("groovy", new File(basedir, "prelude.groovy"));
+            scriptRunner.run("test", basedir, "use-prelude", context, fileLogger);
+        }
+
+        String logContent = new String(Files.readAllBytes(logFile.toPath()));
+        assertTrue(logContent.contains("Hello bar from groovy-test"), logContent);
+        assertTrue(logContent.contains("abab"), logContent);
+    }
+
+    @Test
+    void workersAreReusedAndRecycledAfterErrors() throws Exception {
+        File pidScript =
+                script("pid.groovy", "println 'pid=' + java.lang.management.ManagementFactory.runtimeMXBean.name");
+        File errorScript = script("error.groovy", "throw new LinkageError('broken')");
+        File failedScript = script("failed.groovy", "assert false");
+
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+            workerPool.prestart();
+
+            String first = runForPid(scriptRunner, pidScript);
+            assertNotEquals(ManagementFactory.getRuntimeMXBean().getName(), first);
+
+            ScriptEvaluationException e = assertThrows(
+                    ScriptEvaluationException.class, () -> scriptRunner.run("test", failedScript, null, null));
+            assertEquals(
+                    "org.codehaus.groovy.runtime.powerassert.PowerAssertionError",
+                    ((ScriptWorkerPool.ScriptWorkerException) e.getCause()).getRemoteClassName());
+            assertEquals(first, runForPid(scriptRunner, pidScript));
+
+            assertThrows(ScriptEvaluationException.class, () -> scriptRunner.run("test", errorScript, null, null));
+            assertNotEquals(first, runForPid(scriptRunner, pidScript));
+        }
+    }
+
+    @Test
+    void outputWrittenToTheStandardStreamsDoesNotCorruptTheProtocol() throws Exception {
+        File pidScript =
+                script("pid.groovy", "println 'pid=' + java.lang.management.ManagementFactory.runtimeMXBean.name");
+        File rawScript = script(
+                "raw.groovy",
+                "def out = new FileOutputStream(FileDescriptor.out)\n"
+                        + "out.write('garbage'.bytes)\nout.flush()\nreturn true");
+
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+
+            String first = runForPid(scriptRunner, pidScript);
+            scriptRunner.run("test", rawScript, null, null);
+            assertEquals(first, runForPid(scriptRunner, pidScript));
+        }
+    }
+
+    @Test
+    void workersExceedingTheTimeoutAreReplaced() throws Exception {
+        File pidScript =
+                script("pid.groovy", "println 'pid=' + java.lang.management.ManagementFactory.runtimeMXBean.name");
+        File endlessScript = script("endless.groovy", "println 'started'\nwhile (true) {}");
+        File logFile = new File(tempDir, "endless.log");
+
+        try (ScriptWorkerPool workerPool = new ScriptWorkerPool(1);
+                ScriptRunner scriptRunner = new ScriptRunner()) {
+            scriptRunner.setWorkerPool(workerPool);
+            workerPool.setEvaluationTimeout(30000);
+            String first = runForPid(scriptRunner, pidScript);
+
+            workerPool.setEvaluationTimeout(1000);
+            try (FileLogger fileLogger = new FileLogger(logFile)) {
+                ScriptEvaluationException e = assertThrows(
+                        ScriptEvaluationException.class,
+                        () -> scriptRunner.run("test", endlessScript, null, fileLogger));
+                assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+            }
+            // the output is streamed while the script runs, so it is not lost with the killed worker
+            String logContent = new String(Files.readAllBytes(logFile.toPath()));
+            assertTrue(logContent.contains("started"), logContent);
+
+            workerPool.setEvaluationTimeout(30000);
+            assertNotEquals(first, runForPid(scriptRunner, pidScript));
+        }
+    }
+
+    private String runForPid(ScriptRunner scriptRunner, File pidScript) throws Exception {
+        File logFile = new File(tempDir, "pid.log");
+        try (FileLogger fileLogger = new FileLogger(logFile)) {
+            scriptRunner.run("test", pidScript, null, fileLogger);
+        }
+        String logContent = new String(Files.readAllBytes(logFile.toPath()));
+        int start = logContent.indexOf("pid=") + 4;
+        return logContent.substring(start, logContent.indexOf(System.lineSeparator(), start));
+    }
+
+    private File script(String name, String content) throws Exception {
+        File file = new File(tempDir, name);
+        Files.write(file.toPath(), content.getBytes());
+        return file;
+    }
+}
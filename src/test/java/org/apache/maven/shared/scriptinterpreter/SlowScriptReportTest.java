@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the bounded rankings of the slow script report.
+ */
+class SlowScriptReportTest {
+
+    @Test
+    void onlyTheMostExpensiveEvaluationsAreRanked() {
+        SlowScriptReport report = new SlowScriptReport(3);
+        for (int i = 0; i < 1000; i++) {
+            // costs are shuffled so the heap has to evict entries in both directions
+            long cost = (i * 7919L) % 1000;
+            report.record(new SlowScriptReport.Entry(
+                    "script " + cost, new File("script.groovy"), "groovy", cost, 1000 - cost, 0, true));
+        }
+
+        List<String> lines = new ArrayList<>();
+        report.write(new ExecutionLogger() {
+            @Override
+            public PrintStream getPrintStream() {
+                return System.out;
+            }
+
+            @Override
+            public void consumeLine(String line) {
+                lines.add(line);
+            }
+        });
+
+        assertEquals("Slow script report (1000 evaluations)", lines.get(0));
+        assertEquals("Top 3 by compile time:", lines.get(1));
+        assertTrue(lines.get(2).contains("script 999:"));
+        assertTrue(lines.get(3).contains("script 998:"));
+        assertTrue(lines.get(4).contains("script 997:"));
+        assertEquals("Top 3 by run time:", lines.get(5));
+        assertTrue(lines.get(6).contains("script 0:"));
+        assertTrue(lines.get(8).contains("script 2:"));
+        assertEquals("Top 0 by output:", lines.get(9));
+        assertEquals(10, lines.size());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StackTracePrinterTest {
+
+    @Test
+    void internalFramesShouldBeCollapsed() {
+        IllegalStateException cause = new IllegalStateException("broken");
+        cause.setStackTrace(new StackTraceElement[] {
+            frame("verify"),
+            frame("org.codehaus.groovy.runtime.InvokerHelper"),
+            frame("org.codehaus.groovy.runtime.callsite.CallSiteArray"),
+            frame("Main")
+        });
+        RuntimeException failure = new RuntimeException("failed", cause);
+        failure.setStackTrace(new StackTraceElement[] {frame("bsh.Interpreter"), frame("Main")});
+
+        String expected = "java.lang.RuntimeException: failed\n"
+                + "\t... 1 internal frames\n"
+                + "\tat Main.run(Main.java:1)\n"
+                + "Caused by: java.lang.IllegalStateException: broken\n"
+                + "\tat verify.run(verify.java:1)\n"
+                + "\t... 2 internal frames\n"
+                + "\t... 1 more\n";
+        assertEquals(expected, print(new StackTracePrinter(StackTracePrinter.INTERNAL_FRAME_PREFIXES, 0), failure));
+    }
+
+    @Test
+    void depthShouldBeLimited() {
+        RuntimeException failure = new RuntimeException("failed");
+        failure.setStackTrace(new StackTraceElement[] {frame("A"), frame("B"), frame("C"), frame("D")});
+
+        String expected = "java.lang.RuntimeException: failed\n"
+                + "\tat A.run(A.java:1)\n"
+                + "\tat B.run(B.java:1)\n"
+                + "\t... 2 more frames\n";
+        assertEquals(expected, print(new StackTracePrinter(Collections.emptyList(), 2), failure));
+    }
+
+    @Test
+    void repeatedStackTracesShouldReferToTheFirstScript() {
+        StackTracePrinter printer = new StackTracePrinter(StackTracePrinter.INTERNAL_FRAME_PREFIXES, 0);
+        RuntimeException failure = new RuntimeException("failed");
+        failure.setStackTrace(new StackTraceElement[] {frame("verify")});
+        String full = "java.lang.RuntimeException: failed\n\tat verify.run(verify.java:1)\n";
+
+        assertEquals(full, print(printer, failure, "a/verify.groovy"));
+        assertEquals(full, print(printer, failure, "a/verify.groovy"));
+        assertEquals(
+                "java.lang.RuntimeException: failed\n\t... same stack trace as for a/verify.groovy\n",
+                print(printer, failure, "b/verify.groovy"));
+    }
+
+    @Test
+    void circularCausesShouldBeDetected() {
+        RuntimeException first = new RuntimeException("first");
+        RuntimeException second = new RuntimeException("second", first);
+        first.initCause(second);
+        first.setStackTrace(new StackTraceElement[0]);
+        second.setStackTrace(new StackTraceElement[0]);
+
+        String expected = "java.lang.RuntimeException: first\n"
+                + "Caused by: java.lang.RuntimeException: second\n"
+                + "Caused by: [CIRCULAR REFERENCE: java.lang.RuntimeException: first]\n";
+        assertEquals(expected, print(new StackTracePrinter(Collections.emptyList(), 0), first));
+    }
+
+    @Test
+    void returnExceptionsShouldNotCaptureStackTraces() {
+        assertEquals(0, new ScriptReturnException("returned false", false).getStackTrace().length);
+    }
+
+    private static StackTraceElement frame(String className) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return new StackTraceElement(className, "run", simpleName + ".java", 1);
+    }
+
+    private static String print(StackTracePrinter printer, Throwable failure) {
+        return print(printer, failure, "verify.groovy");
+    }
+
+    private static String print(StackTracePrinter printer, Throwable failure, String scriptPath) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        printer.print(failure, scriptPath, out);
+        return bytes.toString().replace(System.lineSeparator(), "\n");
+    }
+}
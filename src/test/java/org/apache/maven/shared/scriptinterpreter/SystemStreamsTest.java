@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the per-thread redirection of the system streams.
+ */
+class SystemStreamsTest {
+
+    @Test
+    void threadsCreatedDuringRedirectionDoNotInheritTheTarget() throws Exception {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        CountDownLatch finished = new CountDownLatch(1);
+
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(stdout, true));
+        try {
+            Thread thread;
+            try (SystemStreams.Redirection ignored = SystemStreams.redirect(new PrintStream(first, true))) {
+                System.out.print("first");
+                thread = new Thread(() -> {
+                    try {
+                        finished.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    System.out.print("late");
+                });
+                thread.start();
+            }
+
+            // keep the routing streams installed while the thread created by the first redirection prints
+            try (SystemStreams.Redirection ignored = SystemStreams.redirect(new PrintStream(second, true))) {
+                finished.countDown();
+                thread.join();
+                System.out.print("second");
+            }
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        assertEquals("first", first.toString());
+        assertEquals("second", second.toString());
+        assertEquals("late", stdout.toString());
+    }
+}
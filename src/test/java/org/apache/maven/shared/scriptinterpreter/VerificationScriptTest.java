@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.shared.scriptinterpreter;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the helpers of the verification script base class.
+ */
+class VerificationScriptTest {
+
+    @TempDir
+    private File tempDir;
+
+    @BeforeEach
+    void createBuildOutput() throws Exception {
+        try (Writer writer = Files.newBufferedWriter(new File(tempDir, "build.log").toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 10000; i++) {
+                writer.write("[INFO] line " + i + "\r\n");
+            }
+            writer.write("[WARNING] Ümlaut warning\n");
+            writer.write("[INFO] BUILD SUCCESS");
+        }
+
+        try (OutputStream out = Files.newOutputStream(new File(tempDir, "app.jar").toPath());
+                JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            jar.write("Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+            jar.closeEntry();
+            jar.putNextEntry(new ZipEntry("org/example/App.class"));
+            jar.write(new byte[] {(byte) 0xCA, (byte) 0xFE});
+            jar.closeEntry();
+        }
+    }
+
+    @Test
+    void fileSearch() throws Exception {
+        assertEquals(Boolean.TRUE, evaluate("fileContains('build.log', 'BUILD SUCCESS')"));
+        assertEquals(Boolean.TRUE, evaluate("fileContains(new File(basedir, 'build.log'), 'Ümlaut')"));
+        assertEquals(Boolean.FALSE, evaluate("fileContains('build.log', 'BUILD FAILURE')"));
+        assertEquals(Boolean.TRUE, evaluate("fileMatches('build.log', 'line 99[0-9]{2}$')"));
+        assertEquals(Boolean.FALSE, evaluate("fileMatches('build.log', '^\\\\[ERROR\\\\]')"));
+        assertEquals("[WARNING] Ümlaut warning", evaluate("findLine('build.log', '^\\\\[WARNING\\\\]')"));
+        assertEquals("[INFO] BUILD SUCCESS", evaluate("findLine('build.log', 'SUCCESS$')"));
+        assertEquals(10, evaluate("grep('build.log', 'line 999[0-9]').size()"));
+        assertEquals(10001, evaluate("countLines('build.log', '^\\\\[INFO\\\\]')"));
+        assertEquals(Boolean.TRUE, evaluate("fileMatches('build.log', 'Ümlaut w[a-z]+')"));
+        assertEquals("[WARNING] Ümlaut warning", evaluate("findLine('build.log', '^\\\\[WARNING\\\\] Ü')"));
+        assertEquals(1, evaluate("countLines('build.log', '[ÄÖÜ]mlaut')"));
+    }
+
+    @Test
+    void linesLongerThanTheBufferAreMatchedWhole() throws Exception {
+        StringBuilder line = new StringBuilder("[INFO] start ");
+        while (line.length() < 3 * VerificationScript.BUFFER_SIZE) {
+            line.append("0123456789");
+        }
+        line.append(" end");
+        Files.write(
+                new File(tempDir, "long.log").toPath(),
+                ("first\n" + line + "\r\nlast").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Boolean.TRUE, evaluate("fileContains('long.log', '789 end')"));
+        assertEquals(Boolean.TRUE, evaluate("fileMatches('long.log', '^\\\\[INFO\\\\] start .* end$')"));
+        assertEquals(line.length(), evaluate("findLine('long.log', 'start').length()"));
+        assertEquals(3, evaluate("countLines('long.log', '')"));
+    }
+
+    @Test
+    void jarInspection() throws Exception {
+        assertEquals(Boolean.TRUE, evaluate("jarContains('app.jar', 'org/example/App.class')"));
+        assertEquals(Boolean.FALSE, evaluate("jarContains('app.jar', 'org/example/Missing.class')"));
+        assertEquals(2, evaluate("jarEntries('app.jar').size()"));
+        assertEquals("Manifest-Version: 1.0\r\n", evaluate("jarEntryText('app.jar', 'META-INF/MANIFEST.MF')"));
+    }
+
+    private Object evaluate(String script) throws Exception {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("basedir", tempDir);
+        try (GroovyScriptInterpreter interpreter = new GroovyScriptInterpreter()) {
+            interpreter.setScriptBaseClass(VerificationScript.class.getName());
+            return interpreter.evaluateScript(script, variables, null);
+        }
+    }
+}